@@ -0,0 +1,732 @@
+/*
+ * STLGenerator: part of the STLTranslator plugin for Art of Illusion.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See version 2 of the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * with this program. If not, the license, including version 2, is available
+ * from the GNU project, at http://www.gnu.org.
+ */
+
+package artofillusion.translators;
+
+import java.io.*;
+import java.nio.*;
+import java.util.zip.*;
+
+/**
+ *  STLGenerator writes synthetic STL files, for load and regression
+ *  testing: tessellated spheres, tori, blocks of noisy terrain, and
+ *  assemblies of many small solids, in ASCII or binary, optionally
+ *  gzipped.
+ *
+ *  Every facet is calculated from its number alone, and written as it is
+ *  calculated, so a file of any size (eg 100M facets) is written in
+ *  constant memory. A shared vertex is always calculated the same way, so
+ *  it is written as the same floats wherever it appears, and every shape
+ *  welds into a closed, consistently wound solid.
+ *
+ *  Defects may be injected into a chosen fraction of the facets, each
+ *  chosen by a hash of the seed and the facet number (so the same file is
+ *  written every time):
+ *  <ul>
+ *  <li> FLIPPED: the normal written is reversed;
+ *  <li> HOLES: the facet is left out;
+ *  <li> DEGENERATE: a facet of zero area (using a vertex twice) is added
+ *	after it;
+ *  <li> DUPLICATES: the facet is written twice.
+ *  </ul>
+ *
+ *  The shapes are made of regular grids, so a shape may have a few less
+ *  facets than asked for (never more); getShapeFacets() gives the number.
+ *
+ *  STLGenerator needs nothing but the JDK. From the command line (or
+ *  "gradle corpus"), see main().
+ */
+
+public class STLGenerator
+{
+    /* the shapes */
+    public static final int SPHERE = 0;
+    public static final int TORUS = 1;
+    public static final int TERRAIN = 2;
+    public static final int ASSEMBLY = 3;
+
+    /** the names of the shapes */
+    public static final String[] SHAPES = {
+	"sphere", "torus", "terrain", "assembly"
+    };
+
+    /* the file types (as in STLTranslator) */
+    public static final int ASCII = 0;
+    public static final int BINARY = 1;
+
+    /* the defects (bits, to be combined) */
+    public static final int FLIPPED = 1;
+    public static final int HOLES = 2;
+    public static final int DEGENERATE = 4;
+    public static final int DUPLICATES = 8;
+
+    /** the names of the defects, in bit order */
+    public static final String[] DEFECTS = {
+	"flipped", "holes", "degenerate", "duplicates"
+    };
+
+    /** the (target) number of facets in each solid of an assembly */
+    public static final int PART_FACETS = 10000;
+
+    /** the defects to inject (FLIPPED, HOLES, etc) */
+    public int defects = 0;
+
+    /** the fraction (0 to 1) of facets given each defect */
+    public double defectRate = 0.001;
+
+    /** the seed of the terrain noise and the choice of defective facets */
+    public long seed = 1;
+
+    /**
+     *  create a generator of (at most) <i>facets</i> facets of a shape.
+     */
+    public STLGenerator(int shape, long facets)
+    {
+	this.shape = shape;
+
+	switch (shape) {
+	case SPHERE:
+	    surface = new Sphere(facets, 10.0);
+	    break;
+	case TORUS:
+	    surface = new Torus(facets, 10.0, 3.0);
+	    break;
+	case TERRAIN:
+	    surface = new Terrain(facets);
+	    break;
+	case ASSEMBLY:
+	    surface = new Assembly(facets);
+	    break;
+	default:
+	    throw new IllegalArgumentException("shape: " + shape);
+	}
+    }
+
+    /**
+     *  get the name of the shape
+     */
+    public String getName()
+    { return SHAPES[shape]; }
+
+    /**
+     *  get the number of facets in the shape (before any defects).
+     */
+    public long getShapeFacets()
+    { return surface.facets(); }
+
+    /**
+     *  get the number of solids in the shape.
+     */
+    public int getSolids()
+    { return surface.solids(); }
+
+    /**
+     *  get the vertices of facet <i>f</i> of the shape, as they are
+     *  written: the x, y and z of the first, then of the second and third.
+     */
+    public float[] vertices(long f, float[] v)
+    {
+	surface.facet(f, coord);
+	for (int k = 0; k < 9; k++) v[k] = (float) coord[k] + 0.0f;
+
+	return v;
+    }
+
+    /**
+     *  count the facets written, with the defects.
+     */
+    public long countFacets()
+    {
+	long count = 0;
+	for (long f = 0, n = surface.facets(); f < n; f++)
+	    count += copies(f);
+
+	return count;
+    }
+
+    /**
+     *  write the file, ASCII or BINARY, gzipped if its name ends ".gz".
+     */
+    public void write(File file, int type)
+	throws IOException
+    {
+	OutputStream out = new BufferedOutputStream(new FileOutputStream(file),
+						    1024*1024);
+	try {
+	    if (file.getName().endsWith(".gz")) {
+		// (deflating at the default level takes most of the time)
+		GZIPOutputStream zip = new GZIPOutputStream(out, 1024*1024) {{
+			def.setLevel(Deflater.BEST_SPEED);
+		    }};
+		write(zip, type);
+		zip.finish();
+	    }
+	    else write(out, type);
+	}
+	finally {
+	    out.close();
+	}
+    }
+
+    /**
+     *  write the file, ASCII or BINARY, to a stream (which is flushed, but
+     *  not closed).
+     */
+    public void write(OutputStream out, int type)
+	throws IOException
+    {
+	if (type == BINARY) writeBinary(out);
+	else writeAscii(out);
+
+	out.flush();
+    }
+
+    /**
+     *  write synthetic STL files.
+     *
+     *  Usage: <tt>STLGenerator [option...] file...</tt>
+     *
+     *  Each file is written with the options before it:
+     *  <ul>
+     *  <li> -shape sphere|torus|terrain|assembly (default torus)
+     *  <li> -facets <i>n</i> (default 100000)
+     *  <li> -ascii or -binary (default ascii)
+     *  <li> -defects <i>name</i>,... or none (default none)
+     *  <li> -rate <i>fraction</i> (default 0.001)
+     *  <li> -seed <i>n</i> (default 1)
+     *  </ul>
+     *  A file whose name ends ".gz" is gzipped.
+     */
+    public static void main(String[] args)
+	throws IOException
+    {
+	int shape = TORUS, type = ASCII, defects = 0;
+	long facets = 100000, seed = 1;
+	double rate = 0.001;
+
+	for (int x = 0; x < args.length; x++) {
+	    String arg = args[x];
+
+	    if (arg.equals("-ascii")) type = ASCII;
+	    else if (arg.equals("-binary")) type = BINARY;
+	    else if (arg.equals("-shape"))
+		shape = lookup(SHAPES, args[++x]);
+	    else if (arg.equals("-facets"))
+		facets = Long.parseLong(args[++x]);
+	    else if (arg.equals("-rate"))
+		rate = Double.parseDouble(args[++x]);
+	    else if (arg.equals("-seed"))
+		seed = Long.parseLong(args[++x]);
+	    else if (arg.equals("-defects")) {
+		defects = 0;
+		for (String name : args[++x].split(","))
+		    if (!name.equals("none"))
+			defects |= 1 << lookup(DEFECTS, name);
+	    }
+	    else if (arg.startsWith("-"))
+		throw new IllegalArgumentException("unknown option: " + arg);
+	    else {
+		STLGenerator gen = new STLGenerator(shape, facets);
+		gen.defects = defects;
+		gen.defectRate = rate;
+		gen.seed = seed;
+
+		File file = new File(arg);
+		if (file.getParentFile() != null) file.getParentFile().mkdirs();
+
+		long start = System.currentTimeMillis();
+		gen.write(file, type);
+
+		System.out.println(file + ": " + gen.getName() + ", "
+				   + gen.getShapeFacets() + " facets in "
+				   + gen.getSolids() + " solid"
+				   + (gen.getSolids() == 1 ? "" : "s") + ", "
+				   + file.length() + " bytes, "
+				   + (System.currentTimeMillis() - start) + " ms");
+	    }
+	}
+    }
+
+    /**
+     *  write the facets as an ASCII file: a solid for each solid of the
+     *  shape.
+     */
+    protected void writeAscii(OutputStream os)
+	throws IOException
+    {
+	Writer out = new OutputStreamWriter(os, "ISO-8859-1");
+	StringBuilder buf = new StringBuilder(512);
+
+	int solid = 0;
+	long end = 0;
+
+	for (long f = 0, n = surface.facets(); f < n; f++) {
+	    if (f == end) {
+		if (f > 0) out.write("endsolid " + name(solid++) + "\n");
+		out.write("solid " + name(solid) + "\n");
+		end = surface.end(solid);
+	    }
+
+	    if (copies(f) == 0) continue;
+
+	    vertices(f, vert);
+	    normal(vert, norm, flipped(f));
+
+	    buf.setLength(0);
+	    facet(buf, vert, norm);
+	    if ((defects & DEGENERATE) != 0 && hit(f, DEGENERATE))
+		facet(buf, degenerate(vert), norm);
+	    if ((defects & DUPLICATES) != 0 && hit(f, DUPLICATES))
+		facet(buf, vertices(f, vert), norm);
+
+	    out.append(buf);
+	}
+
+	out.write("endsolid " + name(solid) + "\n");
+	out.flush();
+    }
+
+    /**
+     *  write the facets as a binary file.
+     */
+    protected void writeBinary(OutputStream out)
+	throws IOException
+    {
+	ByteBuffer rec = ByteBuffer.allocate(84).order(ByteOrder.LITTLE_ENDIAN);
+
+	// (a binary header must not start with "solid")
+	String title = "\"" + getName() + "\" from STLGenerator, seed " + seed;
+	rec.put(title.getBytes("ISO-8859-1"), 0, Math.min(title.length(), 80));
+	rec.position(80);
+	rec.putInt((int) countFacets());
+	out.write(rec.array(), 0, 84);
+
+	for (long f = 0, n = surface.facets(); f < n; f++) {
+	    if (copies(f) == 0) continue;
+
+	    vertices(f, vert);
+	    normal(vert, norm, flipped(f));
+
+	    record(out, rec, vert, norm);
+	    if ((defects & DEGENERATE) != 0 && hit(f, DEGENERATE))
+		record(out, rec, degenerate(vert), norm);
+	    if ((defects & DUPLICATES) != 0 && hit(f, DUPLICATES))
+		record(out, rec, vertices(f, vert), norm);
+	}
+    }
+
+    /**
+     *  get the number of facets written for facet <i>f</i> of the shape.
+     */
+    protected int copies(long f)
+    {
+	if (defects == 0) return 1;
+	if ((defects & HOLES) != 0 && hit(f, HOLES)) return 0;
+
+	int copies = 1;
+	if ((defects & DEGENERATE) != 0 && hit(f, DEGENERATE)) copies++;
+	if ((defects & DUPLICATES) != 0 && hit(f, DUPLICATES)) copies++;
+
+	return copies;
+    }
+
+    /**
+     *  is the normal of facet <i>f</i> written reversed?
+     */
+    protected boolean flipped(long f)
+    { return (defects & FLIPPED) != 0 && hit(f, FLIPPED); }
+
+    /**
+     *  is facet <i>f</i> given the defect <i>kind</i>?
+     */
+    protected boolean hit(long f, int kind)
+    {
+	// the top 53 bits of a splitmix64 hash, as a fraction
+	long h = mix(seed * 0x9E3779B97F4A7C15L + f * 4 + Integer.numberOfTrailingZeros(kind));
+	return (h >>> 11) * 0x1.0p-53 < defectRate;
+    }
+
+    /**
+     *  the splitmix64 finalizer: a well-mixed 64 bit hash.
+     */
+    protected static long mix(long z)
+    {
+	z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+	z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+	return z ^ (z >>> 31);
+    }
+
+    /**
+     *  get the name of solid <i>k</i>.
+     */
+    private String name(int k)
+    { return (surface.solids() == 1 ? getName() : "part" + k); }
+
+    /**
+     *  calculate the (unit) normal of a facet from its vertices.
+     */
+    private static void normal(float[] v, float[] n, boolean flip)
+    {
+	double ax = v[3] - v[0], ay = v[4] - v[1], az = v[5] - v[2];
+	double bx = v[6] - v[0], by = v[7] - v[1], bz = v[8] - v[2];
+
+	double x = ay*bz - az*by, y = az*bx - ax*bz, z = ax*by - ay*bx;
+	double len = Math.sqrt(x*x + y*y + z*z);
+	if (len > 0.0) len = (flip ? -len : len);
+	else len = 1.0;
+
+	n[0] = (float) (x/len) + 0.0f;
+	n[1] = (float) (y/len) + 0.0f;
+	n[2] = (float) (z/len) + 0.0f;
+    }
+
+    /**
+     *  make a facet degenerate, by replacing its third vertex with its
+     *  first.
+     */
+    private static float[] degenerate(float[] v)
+    {
+	v[6] = v[0];
+	v[7] = v[1];
+	v[8] = v[2];
+	return v;
+    }
+
+    private static void facet(StringBuilder buf, float[] v, float[] n)
+    {
+	buf.append("  facet normal ").append(n[0]).append(' ').append(n[1])
+	    .append(' ').append(n[2]).append("\n    outer loop\n");
+	for (int k = 0; k < 9; k += 3)
+	    buf.append("      vertex ").append(v[k]).append(' ')
+		.append(v[k+1]).append(' ').append(v[k+2]).append('\n');
+	buf.append("    endloop\n  endfacet\n");
+    }
+
+    private static void record(OutputStream out, ByteBuffer rec, float[] v,
+			       float[] n)
+	throws IOException
+    {
+	rec.clear();
+	rec.putFloat(n[0]).putFloat(n[1]).putFloat(n[2]);
+	for (int k = 0; k < 9; k++) rec.putFloat(v[k]);
+	rec.putShort((short) 0);
+
+	out.write(rec.array(), 0, 50);
+    }
+
+    private static int lookup(String[] names, String name)
+    {
+	for (int x = 0; x < names.length; x++)
+	    if (names[x].equalsIgnoreCase(name)) return x;
+
+	throw new IllegalArgumentException("unknown name: " + name);
+    }
+
+    /**
+     *  split <i>n</i> into <i>a</i> x <i>b</i> (returned as { a, b }),
+     *  with <i>b</i> about <i>aspect</i> times <i>a</i>: exactly, if
+     *  <i>n</i> has a divisor near enough, and otherwise with a product
+     *  just under <i>n</i>.
+     */
+    private static long[] split(long n, double aspect, long min)
+    {
+	long a = Math.max((long) Math.sqrt(n / aspect), min);
+
+	for (long d = a; d >= Math.max(a/2, min); d--)
+	    if (n % d == 0) return new long[] { d, n / d };
+
+	return new long[] { a, Math.max(n / a, min) };
+    }
+
+    /**
+     *  a surface of numbered facets, each calculated from its number.
+     */
+    private abstract static class Surface
+    {
+	/** the number of facets */
+	abstract long facets();
+
+	/** put the vertices (x, y, z, x, y, z, x, y, z) of facet <i>f</i> */
+	abstract void facet(long f, double[] v);
+
+	/** the number of solids */
+	int solids()
+	{ return 1; }
+
+	/** the facet after the last of solid <i>k</i> */
+	long end(int k)
+	{ return facets(); }
+    }
+
+    /**
+     *  a surface made of (an) a x b grid(s) of quads, each split into two
+     *  facets.
+     */
+    private abstract static class Grid extends Surface
+    {
+	/** put the point at (<i>a</i>, <i>b</i>) of grid <i>g</i> into v */
+	abstract void point(int g, long a, long b, double[] v, int pos);
+
+	/**
+	 *  put the vertices of facet <i>tri</i> (0 or 1) of quad (a, b):
+	 *  (a, b), (a, b+1), (a+1, b+1) and (a, b), (a+1, b+1), (a+1, b);
+	 *  or, if <i>flip</i>, the same in reverse order.
+	 */
+	void quad(int g, long a, long b, int tri, boolean flip, double[] v)
+	{
+	    point(g, a, b, v, 0);
+	    if (tri == 0) {
+		point(g, a, b+1, v, flip ? 6 : 3);
+		point(g, a+1, b+1, v, flip ? 3 : 6);
+	    }
+	    else {
+		point(g, a+1, b+1, v, flip ? 6 : 3);
+		point(g, a+1, b, v, flip ? 3 : 6);
+	    }
+	}
+    }
+
+    /**
+     *  a UV sphere: <i>rings</i> rings (pole to pole) of <i>segments</i>
+     *  quads, each a single facet at the poles.
+     */
+    private static class Sphere extends Grid
+    {
+	final long rings, segments;
+	final double radius;
+	final double[] offset = new double[3];
+
+	Sphere(long facets, double radius)
+	{
+	    // 2 x segments x (rings - 1) facets
+	    long[] size = split(Math.max(facets/2, 6), 2.0, 2);
+	    rings = size[0] + 1;
+	    segments = size[1];
+	    this.radius = radius;
+	}
+
+	long facets()
+	{ return 2*segments*(rings - 1); }
+
+	void facet(long f, double[] v)
+	{
+	    long n = facets();
+
+	    if (f < segments) quad(0, 0, f, 1, true, v);
+	    else if (f >= n - segments)
+		quad(0, rings - 1, f - (n - segments), 0, true, v);
+	    else {
+		long g = f - segments;
+		quad(0, 1 + g/(2*segments), (g % (2*segments))/2,
+		     (int) (g % 2), true, v);
+	    }
+	}
+
+	void point(int g, long a, long b, double[] v, int pos)
+	{
+	    double x = 0.0, y = 0.0, z;
+
+	    // (the poles are exact, so each is one vertex)
+	    if (a == 0) z = radius;
+	    else if (a == rings) z = -radius;
+	    else {
+		double theta = Math.PI * a / rings;
+		double phi = 2*Math.PI * (b % segments) / segments;
+		double r = radius*Math.sin(theta);
+
+		x = r*Math.cos(phi);
+		y = r*Math.sin(phi);
+		z = radius*Math.cos(theta);
+	    }
+
+	    v[pos] = x + offset[0];
+	    v[pos+1] = y + offset[1];
+	    v[pos+2] = z + offset[2];
+	}
+    }
+
+    /**
+     *  a torus: <i>rings</i> rings (around the tube) of <i>segments</i>
+     *  quads (around the axis).
+     */
+    private static class Torus extends Grid
+    {
+	final long rings, segments;
+	final double major, minor;
+	final double[] offset = new double[3];
+
+	Torus(long facets, double major, double minor)
+	{
+	    long[] size = split(Math.max(facets/2, 9), 2.0, 3);
+	    rings = size[0];
+	    segments = size[1];
+	    this.major = major;
+	    this.minor = minor;
+	}
+
+	long facets()
+	{ return 2*rings*segments; }
+
+	void facet(long f, double[] v)
+	{
+	    long q = f/2;
+	    quad(0, q / segments, q % segments, (int) (f % 2), false, v);
+	}
+
+	void point(int g, long a, long b, double[] v, int pos)
+	{
+	    double theta = 2*Math.PI * (a % rings) / rings;
+	    double phi = 2*Math.PI * (b % segments) / segments;
+	    double r = major + minor*Math.cos(theta);
+
+	    v[pos] = r*Math.cos(phi) + offset[0];
+	    v[pos+1] = r*Math.sin(phi) + offset[1];
+	    v[pos+2] = minor*Math.sin(theta) + offset[2];
+	}
+    }
+
+    /**
+     *  a closed block of terrain: a w x h grid of noisy heights on top, a
+     *  flat w x h grid below, and four walls between.
+     */
+    private class Terrain extends Grid
+    {
+	final long w, h;
+
+	/* the first facet of each part: top, bottom, then the walls at
+	   y = 0, y = h, x = 0 and x = w */
+	final long[] start = new long[7];
+
+	Terrain(long facets)
+	{
+	    // 4(wh + w + h) = 4((w + 1)(h + 1) - 1) facets
+	    long[] size = split(Math.max(facets/4 + 1, 4), 1.0, 2);
+	    w = size[0] - 1;
+	    h = size[1] - 1;
+
+	    long[] count = { 2*w*h, 2*w*h, 2*w, 2*w, 2*h, 2*h };
+	    for (int x = 0; x < 6; x++) start[x+1] = start[x] + count[x];
+	}
+
+	long facets()
+	{ return start[6]; }
+
+	void facet(long f, double[] v)
+	{
+	    int g = 0;
+	    while (f >= start[g+1]) g++;
+
+	    long q = (f - start[g])/2;
+	    int tri = (int) (f % 2);
+	    long across = (g < 2 ? h : 1);
+
+	    // the top, and the walls at y = h and x = 0, face the other way
+	    quad(g, q / across, q % across, tri, g == 0 || g == 3 || g == 4, v);
+	}
+
+	void point(int g, long a, long b, double[] v, int pos)
+	{
+	    // a wall is a strip from the top (b = 0) to the bottom (b = 1)
+	    long x = a, y = b;
+	    switch (g) {
+	    case 2: y = 0; break;
+	    case 3: y = h; break;
+	    case 4: x = 0; y = a; break;
+	    case 5: x = w; y = a; break;
+	    }
+
+	    boolean top = (g == 0 || (g >= 2 && b == 0));
+
+	    v[pos] = x;
+	    v[pos+1] = y;
+	    v[pos+2] = (top ? height(x, y) : 0.0);
+	}
+
+	/**
+	 *  the height at a grid point: a few waves, and a little noise.
+	 */
+	double height(long x, long y)
+	{
+	    double size = Math.max(w, h);
+	    double u = x / size, t = y / size;
+	    double noise = (mix(seed ^ mix(x * 0x100000001B3L + y)) >>> 11)
+		* 0x1.0p-53;
+
+	    return (1.0 + 0.1*size
+		    * (1.5 + Math.sin(5.0*u) * Math.cos(4.0*t)
+		       + 0.3*Math.sin(23.0*u + 1.0) * Math.sin(19.0*t)
+		       + 0.05*noise));
+	}
+    }
+
+    /**
+     *  many small spheres and tori (alternately), in a cube, each its own
+     *  solid.
+     */
+    private static class Assembly extends Surface
+    {
+	final Sphere sphere;
+	final Torus torus;
+	final int parts, side;
+
+	Assembly(long facets)
+	{
+	    parts = (int) Math.min(Math.max(facets / PART_FACETS, 2),
+				   Integer.MAX_VALUE);
+	    sphere = new Sphere(facets / parts, 10.0);
+	    torus = new Torus(facets / parts, 10.0, 3.0);
+
+	    side = (int) Math.ceil(Math.cbrt(parts));
+	}
+
+	long facets()
+	{ return end(parts - 1); }
+
+	int solids()
+	{ return parts; }
+
+	long end(int k)
+	{
+	    long pair = sphere.facets() + torus.facets();
+	    return ((k + 1) / 2)*pair + (k % 2 == 0 ? sphere.facets() : 0);
+	}
+
+	void facet(long f, double[] v)
+	{
+	    long pair = sphere.facets() + torus.facets();
+	    long rem = f % pair;
+	    int k = (int) (2*(f / pair) + (rem < sphere.facets() ? 0 : 1));
+
+	    // each part sits in a cell 30 units square
+	    double[] offset = (k % 2 == 0 ? sphere.offset : torus.offset);
+	    offset[0] = 30.0 * (k % side);
+	    offset[1] = 30.0 * ((k / side) % side);
+	    offset[2] = 30.0 * (k / ((long) side*side));
+
+	    if (k % 2 == 0) sphere.facet(rem, v);
+	    else torus.facet(rem - sphere.facets(), v);
+	}
+    }
+
+    private final int shape;
+    private final Surface surface;
+
+    /* a facet, in progress */
+    private final double[] coord = new double[9];
+    private final float[] vert = new float[9];
+    private final float[] norm = new float[3];
+}
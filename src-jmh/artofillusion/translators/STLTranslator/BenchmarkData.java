@@ -0,0 +1,154 @@
+/*
+ * BenchmarkData: part of the STLTranslator plugin for Art of Illusion.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See version 2 of the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * with this program. If not, the license, including version 2, is available
+ * from the GNU project, at http://www.gnu.org.
+ */
+
+package artofillusion.translators;
+
+import artofillusion.math.*;
+import artofillusion.object.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ *  BenchmarkData makes the synthetic meshes and files the benchmarks run
+ *  on: a closed torus of (exactly) a given number of facets, from
+ *  STLGenerator, so that it welds and validates as a real solid would.
+ *
+ *  The files are written once, to the directory named by the
+ *  <tt>stl.benchmark.data</tt> system property (set by the gradle jmh
+ *  task), and reused by later runs.
+ */
+
+public class BenchmarkData
+{
+    /** the system property naming the directory for the files */
+    public static final String DATA_PROPERTY = "stl.benchmark.data";
+
+    /* the file formats */
+    public static final String BINARY = "binary";
+    public static final String ASCII = "ascii";
+    public static final String GZIP = "gzip";
+
+    /**
+     *  counts the facets processed, so JMH reports facets per second
+     *  alongside the operations.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Facets
+    {
+	public long facets;
+
+	@Setup(Level.Iteration)
+	public void reset()
+	{ facets = 0; }
+    }
+
+    /**
+     *  create the torus of <i>facets</i> facets.
+     */
+    public BenchmarkData(int facets)
+    {
+	gen = new STLGenerator(STLGenerator.TORUS, facets);
+	this.facets = (int) gen.getShapeFacets();
+    }
+
+    /**
+     *  get the number of facets
+     */
+    public int getFacets()
+    { return facets; }
+
+    /**
+     *  get the coordinates of every facet vertex, in file order, as
+     *  (x, y, z) triples: the input to a vertex weld.
+     */
+    public double[] facetCoords()
+    {
+	double[] coords = new double[facets*9];
+	float[] v = new float[9];
+
+	for (int f = 0, pos = 0; f < facets; f++) {
+	    gen.vertices(f, v);
+	    for (int k = 0; k < 9; k++) coords[pos++] = v[k];
+	}
+
+	return coords;
+    }
+
+    /**
+     *  build the torus in a MeshBuffer, as an import would.
+     */
+    public MeshBuffer buffer()
+    {
+	MeshBuffer buffer = new MeshBuffer(facets);
+	float[] v = new float[9];
+
+	for (int f = 0; f < facets; f++) {
+	    gen.vertices(f, v);
+	    buffer.addFace(buffer.addVertex(v[0], v[1], v[2]),
+			   buffer.addVertex(v[3], v[4], v[5]),
+			   buffer.addVertex(v[6], v[7], v[8]));
+	}
+
+	return buffer;
+    }
+
+    /**
+     *  get a list holding the torus, as a TriangleMesh, ready to export.
+     */
+    public List<ObjectInfo> objects()
+    {
+	List<ObjectInfo> list = new ArrayList<ObjectInfo>();
+	list.add(new ObjectInfo(buffer().toMesh(), new CoordinateSystem(),
+				"torus"));
+	return list;
+    }
+
+    /**
+     *  get the file of the torus in a format, writing it if need be.
+     */
+    public File file(String format)
+	throws IOException
+    {
+	File dir = new File(System.getProperty(DATA_PROPERTY,
+					       System.getProperty("java.io.tmpdir")));
+	dir.mkdirs();
+
+	File file = new File(dir, "torus-" + facets + "."
+			     + (format.equals(ASCII) ? "stl"
+				: format.equals(GZIP) ? "stl.gz" : "stlb"));
+	if (file.isFile()) return file;
+
+	// write to the side, so an interrupted run leaves no partial file
+	// (findFileType() only recognises gzipped ASCII)
+	File part = new File(dir, file.getName() + ".part"
+			     + (format.equals(GZIP) ? ".gz" : ""));
+	gen.write(part, format.equals(BINARY) ? STLGenerator.BINARY
+		  : STLGenerator.ASCII);
+
+	if (!part.renameTo(file))
+	    throw new IOException("cannot rename " + part + " to " + file);
+
+	return file;
+    }
+
+    private final STLGenerator gen;
+    private final int facets;
+}
@@ -0,0 +1,98 @@
+/*
+ * ExportBenchmark: part of the STLTranslator plugin for Art of Illusion.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See version 2 of the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * with this program. If not, the license, including version 2, is available
+ * from the GNU project, at http://www.gnu.org.
+ */
+
+package artofillusion.translators;
+
+import artofillusion.object.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ *  ExportBenchmark times the binary and ASCII export of a TriangleMesh,
+ *  to a channel which discards what is written (so the disk is not
+ *  timed).
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExportBenchmark
+{
+    @Param({ "10000", "1000000", "10000000" })
+    public int facets;
+
+    @Param({ BenchmarkData.BINARY, BenchmarkData.ASCII })
+    public String format;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+	BenchmarkData data = new BenchmarkData(facets);
+	objects = data.objects();
+	count = data.getFacets();
+	translator = new STLTranslator();
+    }
+
+    @Benchmark
+    public long export(BenchmarkData.Facets done)
+	throws IOException, InterruptedException
+    {
+	NullChannel out = new NullChannel();
+
+	if (format.equals(BenchmarkData.ASCII))
+	    translator.exportAscii(objects, out);
+	else translator.exportStream(objects, (WritableByteChannel) out);
+
+	done.facets += count;
+	return out.written;
+    }
+
+    /**
+     *  a channel which counts, and discards, the bytes written to it.
+     */
+    private static class NullChannel implements WritableByteChannel
+    {
+	long written;
+
+	public int write(ByteBuffer src)
+	{
+	    int len = src.remaining();
+	    src.position(src.limit());
+	    written += len;
+	    return len;
+	}
+
+	public boolean isOpen()
+	{ return true; }
+
+	public void close()
+	{}
+    }
+
+    private List<ObjectInfo> objects;
+    private int count;
+    private STLTranslator translator;
+}
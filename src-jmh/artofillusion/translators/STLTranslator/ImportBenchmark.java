@@ -0,0 +1,73 @@
+/*
+ * ImportBenchmark: part of the STLTranslator plugin for Art of Illusion.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See version 2 of the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * with this program. If not, the license, including version 2, is available
+ * from the GNU project, at http://www.gnu.org.
+ */
+
+package artofillusion.translators;
+
+import artofillusion.*;
+
+import java.io.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ *  ImportBenchmark times importSTL() - the path the import dialog takes -
+ *  on binary, ASCII and gzipped (ASCII) files, and findFileType() on the
+ *  same files.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ImportBenchmark
+{
+    @Param({ "10000", "1000000", "10000000" })
+    public int facets;
+
+    @Param({ BenchmarkData.BINARY, BenchmarkData.ASCII, BenchmarkData.GZIP })
+    public String format;
+
+    @Setup(Level.Trial)
+    public void setup()
+	throws IOException
+    {
+	data = new BenchmarkData(facets);
+	file = data.file(format);
+	translator = new STLTranslator();
+    }
+
+    @Benchmark
+    public Scene importFile(BenchmarkData.Facets done)
+	throws IOException
+    {
+	Scene scene = translator.importSTL(file);
+	done.facets += data.getFacets();
+	return scene;
+    }
+
+    @Benchmark
+    public int findFileType()
+	throws IOException
+    { return translator.findFileType(file); }
+
+    private BenchmarkData data;
+    private File file;
+    private STLTranslator translator;
+}
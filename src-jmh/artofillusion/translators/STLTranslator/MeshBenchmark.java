@@ -0,0 +1,73 @@
+/*
+ * MeshBenchmark: part of the STLTranslator plugin for Art of Illusion.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See version 2 of the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * with this program. If not, the license, including version 2, is available
+ * from the GNU project, at http://www.gnu.org.
+ */
+
+package artofillusion.translators;
+
+import java.io.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ *  MeshBenchmark times the steps between reading the facets and building
+ *  the mesh: welding the facet vertices, and validating the welded mesh.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MeshBenchmark
+{
+    @Param({ "10000", "1000000", "10000000" })
+    public int facets;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+	BenchmarkData data = new BenchmarkData(facets);
+	count = data.getFacets();
+	coords = data.facetCoords();
+	buffer = data.buffer();
+    }
+
+    @Benchmark
+    public int weld(BenchmarkData.Facets done)
+    {
+	VertexWeld weld = new VertexWeld(VertexWeld.expected(count));
+
+	for (int pos = 0; pos < coords.length; pos += 3)
+	    weld.add(coords[pos], coords[pos+1], coords[pos+2]);
+
+	done.facets += count;
+	return weld.size();
+    }
+
+    @Benchmark
+    public boolean validate(BenchmarkData.Facets done)
+    {
+	boolean valid = STLTranslator.validate(buffer, new StringWriter());
+	done.facets += count;
+	return valid;
+    }
+
+    private int count;
+    private double[] coords;
+    private MeshBuffer buffer;
+}
@@ -0,0 +1,216 @@
+/*
+ * AsciiImportTest: part of the STLTranslator plugin for Art of Illusion.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See version 2 of the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * with this program. If not, the license, including version 2, is available
+ * from the GNU project, at http://www.gnu.org.
+ */
+
+package artofillusion.translators;
+
+import artofillusion.*;
+import artofillusion.math.*;
+import artofillusion.object.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ *  AsciiImportTest checks that ASCII STL is read back as it was written.
+ */
+
+public class AsciiImportTest
+{
+    /** a name beyond ASCII (in the default charset, as the writer uses) */
+    private static final String NAME = "Pi\u00e8ce \u00e0 \u00e9tudier";
+
+    @Test
+    public void nonAsciiNameRoundTrips()
+	throws Exception
+    {
+	STLTranslator translator = new STLTranslator();
+	byte[] file = export(translator, NAME);
+
+	assertEquals(NAME, name(translator.importAscii(new Scene(),
+						       ByteBuffer.wrap(file))));
+
+	assertEquals(NAME, name(translator.importAscii(new Scene(),
+				       new ByteArrayInputStream(file), 0)));
+
+	assertEquals(NAME, name(translator.importStream(new Scene(),
+				       new InputStreamReader(
+					   new ByteArrayInputStream(file)))));
+    }
+
+    @Test
+    public void splitIgnoresCommentsAcrossWindows()
+	throws Exception
+    {
+	File file = File.createTempFile("comments", ".stl");
+	file.deleteOnExit();
+	writeCommented(file);
+
+	STLTranslator translator = new STLTranslator();
+	translator.parallelism = 1;
+
+	Scene serial;
+	try (InputStream in = new FileInputStream(file)) {
+	    serial = translator.importAscii(new Scene(), in, file.length());
+	}
+
+	// (the file is split into chunks of at least 16MB)
+	translator.parallelism = 2;
+	Scene parallel = translator.importAsciiMapped(new Scene(), file);
+
+	assertSameMeshes(serial, parallel);
+    }
+
+    /**
+     *  write a strip of facets (in a single solid) of over 32MB, with, at
+     *  each 16MB, two comment lines of 256KB: a split search starting in
+     *  the first finds the second starting part way through a window.
+     *  Each comment is (from a multiple of 128 bytes) a run of facets, so
+     *  the bytes after any window boundary within it look like the start
+     *  of a facet, and would add faces if parsed.
+     */
+    private static void writeCommented(File file)
+	throws IOException
+    {
+	final long chunk = 1L << 24;
+
+	StringBuilder pattern = new StringBuilder(
+	    "facet normal 0 0 1 outer loop vertex 9 9 9 vertex 9 9 8"
+	    + " vertex 9 8 9 endloop endfacet");
+	while (pattern.length() < 128) pattern.append(' ');
+
+	try (OutputStream out = new BufferedOutputStream(
+		 new FileOutputStream(file))) {
+
+	    long written = write(out, "solid strip\n");
+	    long mark = chunk - 4096;
+
+	    for (int f = 0; written < 2*chunk + 4096; f++) {
+		if (written >= mark) {
+		    for (int c = 0; c < 2; c++) {
+			StringBuilder line = new StringBuilder(";");
+			while ((written + line.length()) % 128 != 0)
+			    line.append(' ');
+			for (int x = 0; x < 2048; x++) line.append(pattern);
+
+			written += write(out, line.append('\n').toString());
+		    }
+		    mark += chunk;
+		}
+
+		written += write(out, facet(f));
+	    }
+
+	    write(out, "endsolid strip\n");
+	}
+    }
+
+    /**
+     *  get the text of the <i>f</i>th facet of a strip.
+     */
+    private static String facet(int f)
+    {
+	int x = f/2, y = f % 2;
+	return "  facet normal 0 0 1\n    outer loop\n"
+	    + "      vertex " + x + " " + y + " 0\n"
+	    + "      vertex " + (x+1) + " " + (1-y) + " 0\n"
+	    + "      vertex " + (x+y) + " 1 0\n"
+	    + "    endloop\n  endfacet\n";
+    }
+
+    private static long write(OutputStream out, String text)
+	throws IOException
+    {
+	byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+	out.write(bytes);
+	return bytes.length;
+    }
+
+    /**
+     *  check that two scenes hold the same meshes, in the same order.
+     */
+    static void assertSameMeshes(Scene expected, Scene actual)
+    {
+	assertNotNull("import failed", actual);
+	assertEquals(expected.getNumObjects(), actual.getNumObjects());
+
+	for (int x = 0; x < expected.getNumObjects(); x++) {
+	    ObjectInfo a = expected.getObject(x), b = actual.getObject(x);
+	    assertEquals(a.getName(), b.getName());
+	    if (!(a.getObject() instanceof TriangleMesh)) continue;
+
+	    TriangleMesh m = (TriangleMesh) a.getObject();
+	    TriangleMesh n = (TriangleMesh) b.getObject();
+
+	    MeshVertex[] mv = m.getVertices(), nv = n.getVertices();
+	    assertEquals(mv.length, nv.length);
+	    for (int v = 0; v < mv.length; v++) {
+		assertEquals(mv[v].r.x, nv[v].r.x, 0.0);
+		assertEquals(mv[v].r.y, nv[v].r.y, 0.0);
+		assertEquals(mv[v].r.z, nv[v].r.z, 0.0);
+	    }
+
+	    TriangleMesh.Face[] mf = m.getFaces(), nf = n.getFaces();
+	    assertEquals(mf.length, nf.length);
+	    for (int f = 0; f < mf.length; f++) {
+		assertEquals(mf[f].v1, nf[f].v1);
+		assertEquals(mf[f].v2, nf[f].v2);
+		assertEquals(mf[f].v3, nf[f].v3);
+	    }
+	}
+    }
+
+    /**
+     *  export a tetrahedron named <i>name</i> in ASCII STL.
+     */
+    static byte[] export(STLTranslator translator, String name)
+	throws Exception
+    {
+	Vec3[] v = { new Vec3(0, 0, 0), new Vec3(1, 0, 0), new Vec3(0, 1, 0),
+		     new Vec3(0, 0, 1) };
+	int[][] f = { { 0, 2, 1 }, { 0, 1, 3 }, { 0, 3, 2 }, { 1, 2, 3 } };
+
+	List<ObjectInfo> list = new ArrayList<ObjectInfo>();
+	list.add(new ObjectInfo(new TriangleMesh(v, f),
+				new CoordinateSystem(), name));
+
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	translator.exportAscii(list, out);
+	return out.toByteArray();
+    }
+
+    /**
+     *  get the name of the (only) mesh in a scene.
+     */
+    static String name(Scene scene)
+    {
+	String name = null;
+	for (int x = 0; x < scene.getNumObjects(); x++) {
+	    ObjectInfo info = scene.getObject(x);
+	    if (info.getObject() instanceof TriangleMesh) {
+		assertNull("more than one mesh", name);
+		name = info.getName();
+	    }
+	}
+
+	return name;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * VectorMeshKernels: part of the STLTranslator plugin for Art of Illusion.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See version 2 of the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * with this program. If not, the license, including version 2, is available
+ * from the GNU project, at http://www.gnu.org.
+ */
+
+package artofillusion.translators;
+
+import artofillusion.math.*;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ *  VectorMeshKernels does the work of MeshKernels on the widest vectors
+ *  of doubles the CPU has (eg 4 on AVX2, 8 on AVX-512), through the
+ *  (incubating) Vector API.
+ *
+ *  Only the transform of vertices is vectorized: it reads and writes
+ *  contiguous arrays, and runs nearly twice as fast. The face normals,
+ *  normal checks and bounds are left to MeshKernels; the first two must
+ *  gather their vertices by index, and the last is limited by memory, so
+ *  vector versions measured no faster (the normals were slower).
+ *
+ *  The transform works through whole vectors of vertices, and leaves any
+ *  left over to MeshKernels. Only the operations of the scalar kernel are
+ *  used, in the same order (no fused multiply-adds), so every result is
+ *  exactly that of MeshKernels.
+ *
+ *  This class is built (and so only loaded) if the JDK has the Vector API
+ *  module; see MeshKernels.get().
+ */
+
+public class VectorMeshKernels extends MeshKernels
+{
+    public VectorMeshKernels()
+    {
+	if (L < 2 || F.length() != L)
+	    throw new UnsupportedOperationException("vectors of "
+						    + D.vectorBitSize()
+						    + " bits");
+    }
+
+    @Override
+    public String getName()
+    { return "vector (" + L + " x 64 bit)"; }
+
+    @Override
+    public void transform(Mat4 m, double[][] local, float[][] world,
+			  int from, int to)
+    {
+	double[] px = local[0], py = local[1], pz = local[2];
+	float[] wx = world[0], wy = world[1], wz = world[2];
+
+	int i = from;
+	for (int upper = from + D.loopBound(to - from); i < upper; i += L) {
+	    DoubleVector x = DoubleVector.fromArray(D, px, i);
+	    DoubleVector y = DoubleVector.fromArray(D, py, i);
+	    DoubleVector z = DoubleVector.fromArray(D, pz, i);
+
+	    DoubleVector w = x.mul(m.m41).add(y.mul(m.m42)).add(z.mul(m.m43))
+		.add(m.m44);
+
+	    toFloat(x.mul(m.m11).add(y.mul(m.m12)).add(z.mul(m.m13))
+		    .add(m.m14).div(w)).intoArray(wx, i);
+	    toFloat(x.mul(m.m21).add(y.mul(m.m22)).add(z.mul(m.m23))
+		    .add(m.m24).div(w)).intoArray(wy, i);
+	    toFloat(x.mul(m.m31).add(y.mul(m.m32)).add(z.mul(m.m33))
+		    .add(m.m34).div(w)).intoArray(wz, i);
+	}
+
+	super.transform(m, local, world, i, to);
+    }
+
+    private static FloatVector toFloat(DoubleVector v)
+    { return (FloatVector) v.convertShape(VectorOperators.D2F, F, 0); }
+
+    /* the widest vectors of doubles, and vectors of as many floats */
+    private static final VectorSpecies<Double> D = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> F =
+	VectorSpecies.of(float.class,
+			 VectorShape.forBitSize(Math.max(D.vectorBitSize()/2, 64)));
+
+    private static final int L = D.length();
+}
@@ -0,0 +1,461 @@
+/*
+ * AsciiChunk: part of the STLTranslator plugin for Art of Illusion.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See version 2 of the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * with this program. If not, the license, including version 2, is available
+ * from the GNU project, at http://www.gnu.org.
+ */
+
+package artofillusion.translators;
+
+import artofillusion.math.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.function.Consumer;
+
+/**
+ *  AsciiChunk parses (part of) an ASCII STL file into a sequence of Parts:
+ *  the start of a solid, a run of facets, and the end of a solid.
+ *
+ *  The Parts are passed to a consumer (see STLTranslator.AsciiAssembler),
+ *  which builds the objects. A whole stream can be parsed as a single
+ *  chunk, with each Part consumed as it is produced; or a mapped file can
+ *  be split at "facet" lines into several chunks, which are parsed in
+ *  parallel, and their Parts consumed afterwards, in file order.
+ */
+
+public class AsciiChunk
+{
+    /* types of Part */
+    public static final int SOLID = 0;
+    public static final int FACETS = 1;
+    public static final int ENDSOLID = 2;
+
+    /**
+     *  a piece of a parsed file.
+     */
+    public static class Part
+    {
+	/** the type of this part (SOLID, FACETS or ENDSOLID) */
+	public int type;
+
+	/** the line of the (first) keyword of this part */
+	public int line;
+
+	/** the name of a SOLID (<i>null</i> if it was not named) */
+	public String name;
+
+	/** the vertices and faces of a FACETS run */
+	public MeshBuffer mesh;
+
+	/** the problems found in the facets of a FACETS run */
+	public FacetDiagnostics diagnostics;
+
+	public Part(int type, int line)
+	{
+	    this.type = type;
+	    this.line = line;
+	}
+    }
+
+    /** the parts, once parse() has been called */
+    public ArrayList<Part> parts;
+
+    /** the exception which stopped parsing (or <i>null</i>) */
+    public Exception error;
+
+    /** the line at which <i>error</i> occurred */
+    public int errorLine;
+
+    /** the file offset and length of this chunk */
+    public final long offset, length;
+
+    /** the line number of the first line of this chunk */
+    public int firstLine = 1;
+
+    /** the fraction of facets whose normals are checked */
+    public double checkFraction = 1.0;
+
+    /**
+     *  create a chunk which parses all the tokens from a lexer.
+     *
+     *  @param size the number of bytes the lexer will read, if known, which
+     *		is used to size the buffers. (Zero if not known.)
+     */
+    public AsciiChunk(STLLexer token, long size)
+    {
+	this.token = token;
+	this.size = size;
+	offset = 0;
+	length = -1;
+    }
+
+    /**
+     *  create a chunk which parses <i>length</i> bytes of a file, starting
+     *  at <i>offset</i>.
+     */
+    public AsciiChunk(FileChannel chan, long offset, long length)
+	throws IOException
+    {
+	this.offset = offset;
+	this.length = length;
+
+	buf = chan.map(FileChannel.MapMode.READ_ONLY, offset, length);
+	size = length;
+    }
+
+    /**
+     *  count the lines ended in this (mapped) chunk.
+     *
+     *  CR, LF and CR-LF each end a line, as in STLLexer.
+     */
+    public int countLines()
+    {
+	ByteBuffer src = buf.duplicate();
+	byte[] data = new byte[(int) Math.min(length, 1024*64)];
+	int lines = 0;
+	boolean cr = false;
+
+	while (src.hasRemaining()) {
+	    int len = Math.min(src.remaining(), data.length);
+	    src.get(data, 0, len);
+
+	    for (int x = 0; x < len; x++) {
+		byte b = data[x];
+		if (b == '\n') {
+		    if (!cr) lines++;
+		    cr = false;
+		}
+		else if (b == '\r') {
+		    lines++;
+		    cr = true;
+		}
+		else cr = false;
+	    }
+	}
+
+	return lines;
+    }
+
+    /**
+     *  parse this chunk, keeping the parts in <i>parts</i>.
+     */
+    public void parse()
+    {
+	parts = new ArrayList<Part>();
+	parse(parts::add);
+    }
+
+    /**
+     *  parse this chunk, passing each part to <i>sink</i> as it is
+     *  produced.
+     *
+     *  Parsing stops at the first error, which is left in <i>error</i>.
+     */
+    public void parse(Consumer<Part> sink)
+    {
+	if (token == null) {
+	    token = new STLLexer(buf.duplicate());
+	    token.setLine(firstLine);
+	}
+
+	try {
+	    boolean more = true;
+	    while (more) {
+
+		// process the next token
+		switch(token.next()) {
+		case STLLexer.WORD:
+		    // keyword
+		    if (token.is(K_SOLID)) {
+			flush(sink);
+
+			Part part = new Part(SOLID, token.lineno);
+			part.name = readName();
+			sink.accept(part);
+
+			outside = false;
+			if (token.type == STLLexer.EOF) more = false;
+		    }
+
+		    else if (token.is(K_ENDSOLID)) {
+			if (outside)
+			    throw new STLTranslator.Ex("missing \"solid\" keyword");
+
+			flush(sink);
+			sink.accept(new Part(ENDSOLID, token.lineno));
+
+			outside = true;
+		    }
+
+		    else if (token.is(K_FACET)) {
+			facetKeyword();
+
+			if (token.next() == STLLexer.WORD && token.is(K_NORMAL))
+			    STLTranslator.readVec(token, norm);
+			else
+			    throw new STLTranslator.Ex("missing \"normal\" keyword");
+
+			vertno = 0;
+		    }
+
+		    else if (token.is(K_ENDFACET)) {
+			facetKeyword();
+
+			if (vertno != 3)
+			    throw new STLTranslator.Ex("incorrect number of vertices: " +
+					 vertno);
+		    }
+
+		    else if (token.is(K_OUTER)) {
+			facetKeyword();
+
+			if (token.next() != STLLexer.WORD || !token.is(K_LOOP))
+			    throw new STLTranslator.Ex("missing \"loop\" keyword");
+
+			vertno = 0;
+		    }
+
+		    else if (token.is(K_ENDLOOP)) {
+			facetKeyword();
+
+			if (vertno != 3)
+			    throw new STLTranslator.Ex("incorrect number of vertices: " +
+					 vertno);
+
+			diagnostics.check(norm.x, norm.y, norm.z,
+					  mesh.getCoords(), face[0], face[1],
+					  face[2], token.lineno);
+
+			mesh.addFace(face[0], face[1], face[2]);
+		    }
+
+		    else if (token.is(K_VERTEX)) {
+			facetKeyword();
+
+			if (vertno >= 3)
+			    throw new STLTranslator.Ex("too many vertices: " + vertno);
+
+			STLTranslator.readVec(token, vert);
+			face[vertno++] = mesh.addVertex(vert.x, vert.y, vert.z);
+		    }
+		    break;
+
+		case STLLexer.EOL:
+		    break;
+
+		case STLLexer.EOF:
+		    more = false;
+		    break;
+
+		default:
+		    throw new STLTranslator.Ex("invalid token (type): " + token.type);
+		}
+	    }
+
+	    flush(sink);
+	}
+	catch (Exception e) {
+	    error = e;
+	    errorLine = token.lineno;
+	}
+
+	// release the mapping (and lexer buffer) as soon as we can
+	token = null;
+	buf = null;
+    }
+
+    /**
+     *  find the offset of the first line at or after <i>pos</i> whose first
+     *  word is "facet".
+     *
+     *  Such a line cannot be inside a comment, so it is a safe place to
+     *  split the file.
+     *
+     *  @return the offset of the start of the line, or <i>size</i> if there
+     *		is no such line.
+     */
+    public static long nextFacet(FileChannel chan, long pos, long size)
+	throws IOException
+    {
+	ByteBuffer window = ByteBuffer.allocate(1024*64);
+	byte[] data = window.array();
+
+	// is this the end of a line, so the next byte (after any line ends)
+	// starts one? (not at first: pos may be part way through a line,
+	// perhaps a comment, and that state carries from window to window)
+	boolean start = false;
+
+	while (pos < size) {
+	    window.clear();
+	    int len = chan.read(window, pos);
+	    if (len <= 0) return size;
+
+	    int x = 0;
+	    while (x < len) {
+		// skip to the end of this line, which may be in a later window
+		if (!start) {
+		    while (x < len && data[x] != '\n' && data[x] != '\r') x++;
+		    if (x == len) break;
+
+		    start = true;
+		}
+
+		// skip line ends, and check the first word of each line
+		byte b = data[x];
+		if (b == '\n' || b == '\r') {
+		    x++;
+		    continue;
+		}
+
+		// need the whole of the start of the line in the window
+		if (len - x < 64 && pos + len < size) break;
+
+		int line = x;
+		while (x < len && (data[x] == ' ' || data[x] == '\t')) x++;
+
+		if (len - x > K_FACET.length && startsWith(data, x, K_FACET)) {
+		    byte c = data[x + K_FACET.length];
+		    if (c == ' ' || c == '\t' || c == '\r' || c == '\n')
+			return pos + line;
+		}
+
+		start = false;
+	    }
+
+	    pos += x;
+	}
+
+	return size;
+    }
+
+    /**
+     *  read the name of a solid, and skip the rest of its line.
+     */
+    private String readName()
+	throws IOException
+    {
+	String name = null;
+
+	if (token.next() == STLLexer.WORD) {
+	    String s = token.word();
+	    if (s.length() > 1 && QUOTES.indexOf(s.charAt(0)) >= 0
+		&& s.charAt(s.length()-1) == s.charAt(0)) {
+		name = s.substring(1, s.length()-1);
+	    } else {
+		// read name till EOL, including spaces
+		name = s;
+		while (token.next() != STLLexer.EOL
+		       && token.type != STLLexer.EOF)
+		    if (token.type == STLLexer.WORD)
+			name = name + " " + token.word();
+	    }
+	}
+
+	// skip the rest of the line
+	while (token.type != STLLexer.EOL && token.type != STLLexer.EOF)
+	    token.next();
+
+	return name;
+    }
+
+    /**
+     *  check that a facet keyword is within a solid, and start a new
+     *  run of facets if necessary.
+     */
+    private void facetKeyword()
+    {
+	if (outside)
+	    throw new STLTranslator.Ex("missing \"solid\" keyword");
+
+	if (mesh == null) {
+	    mesh = new MeshBuffer(runSize());
+	    diagnostics = new FacetDiagnostics("line", FacetDiagnostics.SAMPLES,
+						checkFraction);
+	    runLine = token.lineno;
+	}
+    }
+
+    /**
+     *  estimate the number of facets in a new run: from the bytes left in
+     *  the chunk, and for a run after the first, no more than the one
+     *  before it. (A MeshBuffer grows as need be, so this only avoids
+     *  sizing every solid of a many-solid file for the whole file.)
+     */
+    private int runSize()
+    {
+	int faces = (size > 0
+		     ? MeshBuffer.expectedAscii(size - token.offset())
+		     : UNKNOWN_SIZE);
+
+	return Math.min(faces, lastRun);
+    }
+
+    /**
+     *  pass any current run of facets to the sink.
+     */
+    private void flush(Consumer<Part> sink)
+    {
+	if (mesh == null) return;
+
+	Part part = new Part(FACETS, runLine);
+	part.mesh = mesh;
+	part.diagnostics = diagnostics;
+	sink.accept(part);
+
+	lastRun = mesh.getFaceCount();
+	mesh = null;
+	diagnostics = null;
+    }
+
+    private static boolean startsWith(byte[] data, int pos, byte[] word)
+    {
+	for (int x = 0; x < word.length; x++)
+	    if (data[pos+x] != word[x]) return false;
+
+	return true;
+    }
+
+    private static byte[] bytes(String keyword)
+    { return keyword.getBytes(StandardCharsets.US_ASCII); }
+
+    private static final String QUOTES = "\"'";
+
+    /* the facets expected in a run when the size is not known */
+    private static final int UNKNOWN_SIZE = 1024*64;
+
+    private static final byte[] K_SOLID = bytes("solid");
+    private static final byte[] K_ENDSOLID = bytes("endsolid");
+    private static final byte[] K_FACET = bytes("facet");
+    private static final byte[] K_ENDFACET = bytes("endfacet");
+    private static final byte[] K_NORMAL = bytes("normal");
+    private static final byte[] K_OUTER = bytes("outer");
+    private static final byte[] K_LOOP = bytes("loop");
+    private static final byte[] K_ENDLOOP = bytes("endloop");
+    private static final byte[] K_VERTEX = bytes("vertex");
+
+    private STLLexer token;
+    private ByteBuffer buf;
+    private long size;
+
+    /* parse state */
+    private boolean outside;
+    private int vertno = 0, runLine, lastRun = Integer.MAX_VALUE;
+    private int[] face = new int[3];
+    private Vec3 norm = new Vec3(), vert = new Vec3();
+    private MeshBuffer mesh;
+    private FacetDiagnostics diagnostics;
+}
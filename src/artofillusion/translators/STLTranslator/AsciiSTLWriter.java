@@ -0,0 +1,235 @@
+/*
+ * AsciiSTLWriter: part of the STLTranslator plugin for Art of Illusion.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See version 2 of the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * with this program. If not, the license, including version 2, is available
+ * from the GNU project, at http://www.gnu.org.
+ */
+
+package artofillusion.translators;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.concurrent.*;
+
+/**
+ *  AsciiSTLWriter writes the text of an ASCII STL file to a channel.
+ *
+ *  The faces of each mesh are split into chunks, which are formatted into
+ *  byte buffers on a pool of worker threads. The buffers (and any other
+ *  text) are written to the channel strictly in order, so the output does
+ *  not depend on the number of threads.
+ *
+ *  The text is exactly that written to a PrintWriter by
+ *  STLTranslator.exportStream(List, PrintWriter): strings are encoded in
+ *  the default charset, and numbers are written by a FloatFormat.
+ */
+
+public class AsciiSTLWriter
+{
+    /** the number of faces formatted by each task */
+    public static final int CHUNK_FACES = 1024*8;
+
+    /** the longest text written for a facet */
+    public static final int FACET_LENGTH = 64 + 12*(FloatFormat.MAX_LENGTH + 1)
+	+ 4*12;
+
+    /**
+     *  create a writer.
+     *
+     *  @param digits the maximum significant digits of each number (or zero
+     *		for the shortest round-trip digits)
+     *  @param parallelism the number of threads formatting text
+     */
+    public AsciiSTLWriter(WritableByteChannel chan, int digits, int parallelism)
+    {
+	this.chan = chan;
+	this.digits = digits;
+	this.parallelism = parallelism;
+
+	if (parallelism > 1) pool = new ForkJoinPool(parallelism);
+	else format = new FloatFormat(digits);
+    }
+
+    /**
+     *  write a string.
+     */
+    public void writeText(String text)
+	throws IOException
+    { queue(CompletableFuture.completedFuture(ByteBuffer.wrap(text.getBytes(charset)))); }
+
+    /**
+     *  write the facets of a mesh.
+     *
+     *  The mesh is read by the worker threads after this returns, so it
+     *  must not be changed (or reused) until the writer is flushed.
+     */
+    public void writeMesh(WorldMesh mesh)
+	throws IOException
+    {
+	int count = mesh.getFaceCount();
+
+	for (int start = 0; start < count; start += CHUNK_FACES) {
+	    final int from = start;
+	    final int to = Math.min(start + CHUNK_FACES, count);
+
+	    if (pool == null) {
+		ByteBuffer buf = format(format, mesh, from, to);
+		while (buf.hasRemaining()) chan.write(buf);
+	    }
+	    else
+		queue(pool.submit(() -> format(new FloatFormat(digits), mesh,
+					       from, to)));
+	}
+    }
+
+    /**
+     *  write everything queued so far to the channel.
+     */
+    public void flush()
+	throws IOException
+    {
+	while (!pending.isEmpty()) writeNext();
+    }
+
+    /**
+     *  write everything queued, and release the worker threads.
+     */
+    public void close()
+	throws IOException
+    {
+	try {
+	    flush();
+	}
+	finally {
+	    if (pool != null) pool.shutdownNow();
+	    pending.clear();
+	}
+    }
+
+    /**
+     *  format the facets <i>from</i> (inclusive) to <i>to</i> (exclusive).
+     */
+    public static ByteBuffer format(FloatFormat fmt, WorldMesh mesh,
+				    int from, int to)
+    {
+	byte[] buf = new byte[(to - from) * FACET_LENGTH];
+	int pos = 0;
+
+	for (int i = from; i < to; i++) pos = facet(fmt, buf, pos, mesh, i);
+
+	return ByteBuffer.wrap(buf, 0, pos);
+    }
+
+    /**
+     *  format a single facet of a mesh.
+     *
+     *  @return the position after the last byte written
+     */
+    public static int facet(FloatFormat fmt, byte[] buf, int pos,
+			    WorldMesh mesh, int face)
+    {
+	float[][] coord = mesh.getCoords();
+	int[][] index = mesh.getFaces();
+
+	pos = copy(FACET, buf, pos);
+	pos = vec(fmt, buf, pos, mesh.getNormals(), face);
+	pos = copy(OUTER, buf, pos);
+	pos = copy(VERTEX, buf, pos);
+	pos = vec(fmt, buf, pos, coord, index[0][face]);
+	pos = copy(VERTEX, buf, pos);
+	pos = vec(fmt, buf, pos, coord, index[1][face]);
+	pos = copy(VERTEX, buf, pos);
+	pos = vec(fmt, buf, pos, coord, index[2][face]);
+	return copy(END, buf, pos);
+    }
+
+    /**
+     *  queue a buffer for writing, first writing the oldest if too many
+     *  are queued.
+     */
+    private void queue(Future<ByteBuffer> buf)
+	throws IOException
+    {
+	if (pool == null) {
+	    writeNext(buf);
+	    return;
+	}
+
+	pending.add(buf);
+	while (pending.size() > parallelism*2) writeNext();
+    }
+
+    private void writeNext()
+	throws IOException
+    { writeNext(pending.remove()); }
+
+    private void writeNext(Future<ByteBuffer> next)
+	throws IOException
+    {
+	ByteBuffer buf;
+	try {
+	    buf = next.get();
+	}
+	catch (ExecutionException e) {
+	    Throwable cause = e.getCause();
+	    if (cause instanceof IOException) throw (IOException) cause;
+	    if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+	    throw new IOException(cause);
+	}
+	catch (InterruptedException e) {
+	    throw new InterruptedIOException();
+	}
+
+	while (buf.hasRemaining()) chan.write(buf);
+    }
+
+    private static int vec(FloatFormat fmt, byte[] buf, int pos, float[][] v,
+			   int i)
+    {
+	buf[pos++] = ' ';
+	pos = fmt.format(v[0][i], buf, pos);
+	buf[pos++] = ' ';
+	pos = fmt.format(v[1][i], buf, pos);
+	buf[pos++] = ' ';
+	return fmt.format(v[2][i], buf, pos);
+    }
+
+    private static int copy(byte[] text, byte[] buf, int pos)
+    {
+	System.arraycopy(text, 0, buf, pos, text.length);
+	return pos + text.length;
+    }
+
+    private static byte[] ascii(String s)
+    { return s.getBytes(java.nio.charset.StandardCharsets.US_ASCII); }
+
+    /* the fixed text of a facet */
+    private static final byte[] FACET = ascii("\nfacet normal ");
+    private static final byte[] OUTER = ascii("\n  outer loop");
+    private static final byte[] VERTEX = ascii("\n    vertex ");
+    private static final byte[] END = ascii("\n  endloop\nendfacet");
+
+    private final WritableByteChannel chan;
+    private final int digits, parallelism;
+    private final Charset charset = Charset.defaultCharset();
+
+    private ForkJoinPool pool;
+    private FloatFormat format;
+
+    /* buffers not yet written, in order */
+    private ArrayDeque<Future<ByteBuffer>> pending =
+	new ArrayDeque<Future<ByteBuffer>>();
+}
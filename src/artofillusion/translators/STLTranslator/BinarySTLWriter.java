@@ -0,0 +1,184 @@
+/*
+ * BinarySTLWriter: part of the STLTranslator plugin for Art of Illusion.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See version 2 of the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * with this program. If not, the license, including version 2, is available
+ * from the GNU project, at http://www.gnu.org.
+ */
+
+package artofillusion.translators;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ *  BinarySTLWriter writes a binary STL file to a channel.
+ *
+ *  Whole facet records are packed into a large little-endian buffer, which
+ *  is written to the channel each time it fills, so the channel sees a few
+ *  large writes rather than one per value.
+ *
+ *  The bytes written are exactly those of LittleEndianDataOutputStream:
+ *  header characters are truncated to their low byte, and floats are
+ *  written through Float.floatToIntBits().
+ */
+
+public class BinarySTLWriter
+{
+    /** the size of the header, and of a facet record */
+    public static final int HEADER_SIZE = 84, FACET_SIZE = 50;
+
+    /**
+     *  create a writer with a buffer of (about) 1MB.
+     */
+    public BinarySTLWriter(WritableByteChannel chan)
+    { this(chan, 1024*1024); }
+
+    /**
+     *  create a writer with a buffer of (about) <i>size</i> bytes.
+     */
+    public BinarySTLWriter(WritableByteChannel chan, int size)
+    {
+	this.chan = chan;
+
+	size = Math.max(size / FACET_SIZE, 1) * FACET_SIZE;
+	buf = ByteBuffer.allocateDirect(Math.max(size, HEADER_SIZE));
+	buf.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     *  write the header: 80 bytes of text (truncated or padded with
+     *  spaces), followed by the number of facets.
+     */
+    public void writeHeader(String text, int facets)
+	throws IOException
+    {
+	if (buf.remaining() < HEADER_SIZE) flush();
+
+	int len = Math.min(text.length(), 80);
+	for (int x = 0; x < len; x++) buf.put((byte) text.charAt(x));
+	for (int x = len; x < 80; x++) buf.put((byte) ' ');
+
+	buf.putInt(facets);
+    }
+
+    /**
+     *  write a facet record: its normal, its three vertices, and two bytes
+     *  of (space) padding.
+     */
+    public void writeFacet(float nx, float ny, float nz,
+			   float x1, float y1, float z1,
+			   float x2, float y2, float z2,
+			   float x3, float y3, float z3)
+	throws IOException
+    {
+	if (buf.remaining() < FACET_SIZE) flush();
+
+	buf.putInt(Float.floatToIntBits(nx));
+	buf.putInt(Float.floatToIntBits(ny));
+	buf.putInt(Float.floatToIntBits(nz));
+	buf.putInt(Float.floatToIntBits(x1));
+	buf.putInt(Float.floatToIntBits(y1));
+	buf.putInt(Float.floatToIntBits(z1));
+	buf.putInt(Float.floatToIntBits(x2));
+	buf.putInt(Float.floatToIntBits(y2));
+	buf.putInt(Float.floatToIntBits(z2));
+	buf.putInt(Float.floatToIntBits(x3));
+	buf.putInt(Float.floatToIntBits(y3));
+	buf.putInt(Float.floatToIntBits(z3));
+	buf.putShort(PADDING);
+
+	count++;
+    }
+
+    /**
+     *  write a facet record for each face of a mesh.
+     */
+    public void writeMesh(WorldMesh mesh)
+	throws IOException
+    {
+	float[][] norm = mesh.getNormals(), coord = mesh.getCoords();
+	int[][] face = mesh.getFaces();
+
+	float[] nx = norm[0], ny = norm[1], nz = norm[2];
+	float[] x = coord[0], y = coord[1], z = coord[2];
+	int[] f1 = face[0], f2 = face[1], f3 = face[2];
+
+	for (int i = 0, max = mesh.getFaceCount(); i < max; i++) {
+	    int v1 = f1[i], v2 = f2[i], v3 = f3[i];
+
+	    writeFacet(nx[i], ny[i], nz[i],
+		       x[v1], y[v1], z[v1],
+		       x[v2], y[v2], z[v2],
+		       x[v3], y[v3], z[v3]);
+	}
+    }
+
+    /**
+     *  flush, then overwrite the number of facets in a header written at
+     *  position <i>start</i> of <i>chan</i> (the channel being written)
+     *  with the number of facets actually written.
+     *
+     *  The channel is left positioned after the last facet.
+     *
+     *  @throws IOException if the channel cannot write at a position
+     *		(eg a file opened to append)
+     */
+    public void patchFacetCount(SeekableByteChannel chan, long start)
+	throws IOException
+    {
+	flush();
+
+	ByteBuffer num = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+	num.putInt((int) count).flip();
+
+	long end = chan.position();
+	chan.position(start + 80);
+	while (num.hasRemaining()) chan.write(num);
+
+	// a channel in append mode writes at the end regardless
+	if (chan.position() != start + HEADER_SIZE) {
+	    chan.truncate(end);
+	    chan.position(end);
+	    throw new IOException("cannot write the facet count into the header");
+	}
+
+	chan.position(end);
+    }
+
+    /**
+     *  get the number of facets written
+     */
+    public long getFacetCount()
+    { return count; }
+
+    /**
+     *  write any buffered bytes to the channel.
+     */
+    public void flush()
+	throws IOException
+    {
+	buf.flip();
+	while (buf.hasRemaining()) chan.write(buf);
+	buf.clear();
+    }
+
+    /* two spaces */
+    private static final short PADDING = 0x2020;
+
+    private final WritableByteChannel chan;
+    private final ByteBuffer buf;
+    private long count;
+}
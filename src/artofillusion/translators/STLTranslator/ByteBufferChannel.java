@@ -0,0 +1,191 @@
+/*
+ * ByteBufferChannel: part of the STLTranslator plugin for Art of Illusion.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See version 2 of the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * with this program. If not, the license, including version 2, is available
+ * from the GNU project, at http://www.gnu.org.
+ */
+
+package artofillusion.translators;
+
+import java.io.*;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ *  ByteBufferChannel is a SeekableByteChannel on a ByteBuffer, so that
+ *  the exports (which write to channels) can write straight into memory.
+ *
+ *  Positions in the channel are indices into the buffer, starting from
+ *  the buffer's position when the channel is created. A channel created
+ *  on a caller's buffer writes into that buffer (up to its limit), and
+ *  throws a BufferOverflowException if it fills; a growable channel
+ *  replaces its buffer with a larger one as needed.
+ */
+
+public class ByteBufferChannel implements SeekableByteChannel
+{
+    /**
+     *  create a growable channel, on a heap buffer of <i>size</i> bytes.
+     */
+    public ByteBufferChannel(int size)
+    {
+	buf = ByteBuffer.allocate(Math.max(size, 16));
+	cap = buf.capacity();
+	grow = true;
+    }
+
+    /**
+     *  create a channel writing into <i>buf</i> (from its position), which
+     *  grows (into a new buffer) only if <i>grow</i> is true.
+     */
+    public ByteBufferChannel(ByteBuffer buf, boolean grow)
+    {
+	this.buf = buf;
+	this.grow = grow;
+
+	base = buf.position();
+	end = base;
+	cap = (grow ? buf.capacity() : buf.limit());
+    }
+
+    /**
+     *  get the buffer, positioned after the last byte written. (This is
+     *  only the buffer passed to the constructor if it has not grown.)
+     */
+    public ByteBuffer getBuffer()
+    {
+	buf.limit(cap);
+	buf.position(end);
+	return buf;
+    }
+
+    public int write(ByteBuffer src)
+	throws IOException
+    {
+	check();
+
+	int len = src.remaining();
+	long pos = buf.position();
+
+	if (pos + len > cap) expand(pos + len);
+
+	buf.limit(cap);
+	buf.put(src);
+	if (buf.position() > end) end = buf.position();
+
+	return len;
+    }
+
+    public int read(ByteBuffer dst)
+	throws IOException
+    {
+	check();
+
+	int pos = buf.position();
+	if (pos >= end) return -1;
+
+	int len = Math.min(dst.remaining(), end - pos);
+	ByteBuffer src = buf.duplicate();
+	src.limit(pos + len);
+	dst.put(src);
+
+	buf.position(pos + len);
+	return len;
+    }
+
+    public long position()
+	throws IOException
+    {
+	check();
+	return buf.position();
+    }
+
+    public SeekableByteChannel position(long pos)
+	throws IOException
+    {
+	check();
+	if (pos < base) throw new IllegalArgumentException("position " + pos);
+
+	if (pos > cap) expand(pos);
+	buf.limit(cap);
+	buf.position((int) pos);
+	return this;
+    }
+
+    /**
+     *  get the position after the last byte written (so a buffer which
+     *  started at position zero holds exactly size() bytes).
+     */
+    public long size()
+	throws IOException
+    {
+	check();
+	return end;
+    }
+
+    public SeekableByteChannel truncate(long size)
+	throws IOException
+    {
+	check();
+	if (size < 0) throw new IllegalArgumentException("size " + size);
+
+	size = Math.max(size, base);
+	if (size < end) end = (int) size;
+	if (buf.position() > end) buf.position(end);
+	return this;
+    }
+
+    public boolean isOpen()
+    { return open; }
+
+    public void close()
+    { open = false; }
+
+    private void check()
+	throws ClosedChannelException
+    {
+	if (!open) throw new ClosedChannelException();
+    }
+
+    /**
+     *  replace the buffer with one of at least <i>size</i> bytes, keeping
+     *  its contents and position.
+     */
+    private void expand(long size)
+    {
+	if (!grow || size > Integer.MAX_VALUE - 8)
+	    throw new BufferOverflowException();
+
+	cap = (int) Math.min(Math.max(size, cap * 2L), Integer.MAX_VALUE - 8);
+
+	ByteBuffer bigger = (buf.isDirect() ? ByteBuffer.allocateDirect(cap)
+			     : ByteBuffer.allocate(cap));
+	bigger.order(buf.order());
+
+	int pos = buf.position();
+	ByteBuffer src = buf.duplicate();
+	src.position(0);
+	src.limit(end);
+	bigger.put(src);
+
+	bigger.position(pos);
+	buf = bigger;
+    }
+
+    private ByteBuffer buf;
+    private final boolean grow;
+    private int base, end, cap;
+    private boolean open = true;
+}
@@ -0,0 +1,150 @@
+/*
+ * FacetChunk: part of the STLTranslator plugin for Art of Illusion.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See version 2 of the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * with this program. If not, the license, including version 2, is available
+ * from the GNU project, at http://www.gnu.org.
+ */
+
+package artofillusion.translators;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ *  FacetChunk decodes a contiguous range of facet records from a binary
+ *  STL file, so that disjoint ranges can be decoded in parallel.
+ *
+ *  Each chunk stages its own (welded) mesh and collects its own
+ *  diagnostics; the chunks are then appended, in file order, by
+ *  STLTranslator.
+ */
+
+public class FacetChunk extends RecursiveAction
+{
+    /** the index of the first facet in this chunk */
+    public final int start;
+
+    /** the number of facets in this chunk */
+    public final int count;
+
+    /** the (chunk-local) vertices and faces */
+    public MeshBuffer mesh;
+
+    /** the problems found in the facets decoded (set by the caller) */
+    public FacetDiagnostics diagnostics;
+
+    /** any exception thrown while decoding */
+    public Exception error;
+
+    private final FileChannel chan;
+    private final long offset;
+    private final ByteBuffer facets;
+
+    /**
+     *  create a chunk of <i>count</i> facets, starting at facet
+     *  <i>start</i>.
+     *
+     *  @param chan the channel to read from
+     *  @param offset the file position of facet 0 (ie the header size)
+     */
+    public FacetChunk(FileChannel chan, long offset, int start, int count)
+    {
+	this.chan = chan;
+	this.offset = offset;
+	this.start = start;
+	this.count = count;
+	facets = null;
+    }
+
+    /**
+     *  create a chunk of <i>count</i> facets, starting at facet
+     *  <i>start</i>, of facets already in memory.
+     *
+     *  @param facets the facets (from facet 0 at index 0)
+     */
+    public FacetChunk(ByteBuffer facets, int start, int count)
+    {
+	this.facets = facets;
+	this.start = start;
+	this.count = count;
+	chan = null;
+	offset = 0;
+    }
+
+    /**
+     *  map (or slice) and decode this chunk's range of the file.
+     */
+    @Override
+    protected void compute()
+    {
+	try {
+	    ByteBuffer buf;
+	    if (facets != null) {
+		buf = facets.duplicate();
+		buf.limit((start + count) * SIZE);
+		buf.position(start * SIZE);
+		buf = buf.slice();
+	    }
+	    else buf = chan.map(FileChannel.MapMode.READ_ONLY,
+				offset + (long) start * SIZE,
+				(long) count * SIZE);
+
+	    decode(buf.order(ByteOrder.LITTLE_ENDIAN));
+	} catch (Exception e) {
+	    error = e;
+	}
+    }
+
+    /**
+     *  decode this chunk's facets from <i>buf</i>, which must be
+     *  little-endian, and positioned so its first facet is at index 0.
+     */
+    public void decode(ByteBuffer buf)
+	throws IOException
+    {
+	mesh = new MeshBuffer(count);
+
+	int v1, v2, v3;
+
+	// the normals of a block of facets are checked together
+	float[][] read = new float[3][Math.min(count, FacetDiagnostics.BLOCK)];
+	float[] rx = read[0], ry = read[1], rz = read[2];
+
+	for (int first = 0; first < count; first += FacetDiagnostics.BLOCK) {
+	    int max = Math.min(FacetDiagnostics.BLOCK, count - first);
+
+	    for (int x = 0, pos = first*SIZE; x < max; x++, pos += SIZE) {
+		rx[x] = buf.getFloat(pos);
+		ry[x] = buf.getFloat(pos+4);
+		rz[x] = buf.getFloat(pos+8);
+
+		v1 = mesh.addVertex(buf.getFloat(pos+12), buf.getFloat(pos+16),
+				    buf.getFloat(pos+20));
+		v2 = mesh.addVertex(buf.getFloat(pos+24), buf.getFloat(pos+28),
+				    buf.getFloat(pos+32));
+		v3 = mesh.addVertex(buf.getFloat(pos+36), buf.getFloat(pos+40),
+				    buf.getFloat(pos+44));
+
+		mesh.addFace(v1, v2, v3);
+	    }
+
+	    diagnostics.check(read, mesh.getCoords(), mesh.getFaces(), first,
+			      max, start + first);
+	}
+    }
+
+    private static final int SIZE = 50;
+}
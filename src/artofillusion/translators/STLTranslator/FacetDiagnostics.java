@@ -0,0 +1,333 @@
+/*
+ * FacetDiagnostics: part of the STLTranslator plugin for Art of Illusion.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See version 2 of the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * with this program. If not, the license, including version 2, is available
+ * from the GNU project, at http://www.gnu.org.
+ */
+
+package artofillusion.translators;
+
+import artofillusion.math.*;
+
+import java.io.*;
+
+/**
+ *  FacetDiagnostics collects the problems found in the facets of an
+ *  imported mesh, by comparing the normal read for each facet with the
+ *  normal calculated from its vertices.
+ *
+ *  Each facet found with a problem is counted under one of three
+ *  categories, but only the first few of each (the <i>samples</i>) are
+ *  recorded, as numbers in primitive arrays. So a file with millions of
+ *  bad facets takes no more memory or time to report than one with a few,
+ *  and no text is built until a summary (or the detail of the samples) is
+ *  asked for.
+ *
+ *  Only a fraction of the facets need be checked: each facet is chosen
+ *  (or not) by a hash of its location, so the same facets are checked
+ *  however a file is split for decoding.
+ *
+ *  The normals of a block of facets can be checked together, through
+ *  MeshKernels (and so several at a time, where the CPU allows).
+ *
+ *  Diagnostics collected separately (eg from chunks of a file decoded in
+ *  parallel) can be merged, in file order, with add().
+ */
+
+public class FacetDiagnostics
+{
+    /* the categories of problem */
+    public static final int INCONSISTENT = 0;
+    public static final int INVERTED = 1;
+    public static final int DEGENERATE = 2;
+
+    /** the number of locations recorded (by default) for each category */
+    public static final int SAMPLES = 10;
+
+    /** a good number of facets to check together */
+    public static final int BLOCK = 1024*4;
+
+    /** the name of the object, if known */
+    public String name;
+
+    /**
+     *  create an empty collector, recording the first SAMPLES locations in
+     *  each category.
+     *
+     *  @param unit what a location counts ("face" or "line")
+     */
+    public FacetDiagnostics(String unit)
+    { this(unit, SAMPLES, 1.0); }
+
+    /**
+     *  create an empty collector, recording the first <i>samples</i>
+     *  locations in each category.
+     *
+     *  @param fraction the fraction (0 to 1) of facets to check
+     */
+    public FacetDiagnostics(String unit, int samples, double fraction)
+    {
+	this.unit = unit;
+	this.samples = samples;
+	this.fraction = fraction;
+
+	if (fraction >= 1.0) threshold = -1;
+	else if (fraction > 0.0) threshold = (long) (fraction * 0x100000000L);
+	else threshold = 0;
+
+	where = new int[CATEGORIES][samples];
+	normals = new double[samples*6];
+    }
+
+    /**
+     *  check the normal read for a facet.
+     *
+     *  @param nx the x value of the normal read
+     *  @param ny the y value of the normal read
+     *  @param nz the z value of the normal read
+     *  @param coords the vertex coordinates, as (x, y, z) triples
+     *  @param v1 the index of the first vertex of the face
+     *  @param v2 the index of the second vertex of the face
+     *  @param v3 the index of the third vertex of the face
+     *  @param loc the number (or line) of the face, for reporting
+     */
+    public void check(double nx, double ny, double nz, double[] coords,
+		      int v1, int v2, int v3, int loc)
+    {
+	// (a multiplicative hash spreads any regular run of locations)
+	if (threshold >= 0 && ((loc * 0x9E3779B9) & 0xffffffffL) >= threshold)
+	    return;
+
+	checked++;
+
+	classify(MeshKernels.project(nx, ny, nz, coords, v1*3, v2*3, v3*3),
+		 nx, ny, nz, coords, v1*3, v2*3, v3*3, loc);
+    }
+
+    /**
+     *  check the normals read for <i>count</i> consecutive facets.
+     *
+     *  @param read the x, y and z arrays of the normals read, from index 0
+     *  @param coords the vertex coordinates, as (x, y, z) triples
+     *  @param faces the face vertex indices, 3 per face
+     *  @param first the first face to check
+     *  @param loc the number (or line) of the first face, for reporting
+     */
+    public void check(float[][] read, double[] coords, int[] faces,
+		      int first, int count, int loc)
+    {
+	float[] rx = read[0], ry = read[1], rz = read[2];
+
+	// a sample is checked a facet at a time
+	if (threshold >= 0) {
+	    for (int k = 0, f = first*3; k < count; k++, f += 3)
+		check(rx[k], ry[k], rz[k], coords, faces[f], faces[f+1],
+		      faces[f+2], loc + k);
+	    return;
+	}
+
+	if (projection.length < count) projection = new double[count];
+	kernels.projections(coords, faces, first, read, projection, count);
+	checked += count;
+
+	for (int k = 0, f = first*3; k < count; k++, f += 3)
+	    classify(projection[k], rx[k], ry[k], rz[k], coords, faces[f]*3,
+		     faces[f+1]*3, faces[f+2]*3, loc + k);
+    }
+
+    /**
+     *  add the problems collected by <i>other</i>, which must follow these
+     *  (in file order).
+     */
+    public void add(FacetDiagnostics other)
+    {
+	for (int cat = 0; cat < CATEGORIES; cat++) {
+	    int n = (int) Math.min(count[cat], samples);
+	    int copy = (int) Math.min(other.count[cat],
+				      Math.min(other.samples, samples - n));
+
+	    if (copy > 0) {
+		System.arraycopy(other.where[cat], 0, where[cat], n, copy);
+		if (cat == INCONSISTENT)
+		    System.arraycopy(other.normals, 0, normals, n*6, copy*6);
+	    }
+
+	    count[cat] += other.count[cat];
+	}
+
+	checked += other.checked;
+    }
+
+    /**
+     *  get the number of facets found with a problem of category
+     *  <i>cat</i>.
+     */
+    public long getCount(int cat)
+    { return count[cat]; }
+
+    /**
+     *  get the number of facets found with any problem.
+     */
+    public long getTotal()
+    { return count[INCONSISTENT] + count[INVERTED] + count[DEGENERATE]; }
+
+    /**
+     *  get the number of facets checked.
+     */
+    public long getChecked()
+    { return checked; }
+
+    /**
+     *  forget every problem collected.
+     */
+    public void clear()
+    {
+	count[INCONSISTENT] = count[INVERTED] = count[DEGENERATE] = 0;
+	checked = 0;
+    }
+
+    /**
+     *  write a line for each category of problem found: the number of
+     *  facets, and the first few locations.
+     */
+    public void summary(Writer err)
+	throws IOException
+    {
+	for (int cat = 0; cat < CATEGORIES; cat++) {
+	    long n = count[cat];
+	    if (n == 0) continue;
+
+	    err.write(TITLE[cat] + " at " + n + " " + unit
+		      + (n == 1 ? "" : "s")
+		      + (fraction < 1.0 ? " (of " + checked + " checked): "
+			 : ": "));
+
+	    int shown = (int) Math.min(n, samples);
+	    for (int x = 0; x < shown; x++) {
+		if (x > 0) err.write(", ");
+		err.write(Integer.toString(where[cat][x]));
+	    }
+
+	    if (n > shown) err.write(" (and " + (n - shown) + " more)");
+	    err.write("\n");
+	}
+    }
+
+    /**
+     *  write a line (or two) for each location recorded, including the
+     *  normals read and calculated for an inconsistent facet.
+     */
+    public void detail(Writer err)
+	throws IOException
+    {
+	int shown = (int) Math.min(count[INCONSISTENT], samples);
+	for (int x = 0, n = 0; x < shown; x++, n += 6)
+	    err.write("Normal direction, " + unit + ": "
+		      + where[INCONSISTENT][x] + "\n"
+		      + "read: " + new Vec3(normals[n], normals[n+1],
+					    normals[n+2])
+		      + "; calculated: " + new Vec3(normals[n+3],
+						    normals[n+4],
+						    normals[n+5]) + "\n");
+
+	shown = (int) Math.min(count[INVERTED], samples);
+	for (int x = 0; x < shown; x++)
+	    err.write("Inverted normal at " + unit + ": " + where[INVERTED][x]
+		      + "\n");
+
+	shown = (int) Math.min(count[DEGENERATE], samples);
+	for (int x = 0; x < shown; x++)
+	    err.write("Degenerate triangle detected at " + unit + ": "
+		      + where[DEGENERATE][x] + "\n");
+
+	summary(err);
+    }
+
+    /**
+     *  count (and perhaps record) a facet by the projection of the normal
+     *  read onto the normal calculated from its vertices (at coordinate
+     *  offsets <i>v1</i>, <i>v2</i> and <i>v3</i>).
+     */
+    private void classify(double projection, double nx, double ny,
+			  double nz, double[] coords, int v1, int v2, int v3,
+			  int loc)
+    {
+	// (a zero normal gives NaN, and is not a problem)
+	if (0 < projection && projection < 0.999) {
+	    long seen = count[INCONSISTENT]++;
+	    if (seen < samples) {
+		int n = (int) seen;
+		where[INCONSISTENT][n] = loc;
+
+		n *= 6;
+		normals[n] = nx;
+		normals[n+1] = ny;
+		normals[n+2] = nz;
+
+		// (v2 - v1) x (v3 - v1), normalized
+		double ax = coords[v2] - coords[v1];
+		double ay = coords[v2+1] - coords[v1+1];
+		double az = coords[v2+2] - coords[v1+2];
+		double bx = coords[v3] - coords[v1];
+		double by = coords[v3+1] - coords[v1+1];
+		double bz = coords[v3+2] - coords[v1+2];
+
+		double cx = ay*bz - az*by;
+		double cy = az*bx - ax*bz;
+		double cz = ax*by - ay*bx;
+
+		double len = Math.sqrt(cx*cx + cy*cy + cz*cz);
+		normals[n+3] = cx / len;
+		normals[n+4] = cy / len;
+		normals[n+5] = cz / len;
+	    }
+	}
+	else if (projection < 0.0) record(INVERTED, loc);
+	else if (projection == 0.0) record(DEGENERATE, loc);
+    }
+
+    private void record(int cat, int loc)
+    {
+	long seen = count[cat]++;
+	if (seen < samples) where[cat][(int) seen] = loc;
+    }
+
+    private static final int CATEGORIES = 3;
+
+    private static final String[] TITLE = {
+	"Normal direction differs from the vertex order",
+	"Inverted normal",
+	"Degenerate triangle"
+    };
+
+    private final String unit;
+    private final int samples;
+
+    /* the fraction of facets checked, and the hash below which a facet is
+       checked (or -1 to check them all) */
+    private final double fraction;
+    private final long threshold;
+    private long checked;
+
+    private final MeshKernels kernels = MeshKernels.get();
+    private double[] projection = new double[0];
+
+    /* the number of facets found with each category of problem */
+    private final long[] count = new long[CATEGORIES];
+
+    /* the first few locations of each category */
+    private final int[][] where;
+
+    /* the normals read and calculated for each inconsistent sample */
+    private final double[] normals;
+}
@@ -0,0 +1,422 @@
+/*
+ * FloatFormat: part of the STLTranslator plugin for Art of Illusion.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See version 2 of the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * with this program. If not, the license, including version 2, is available
+ * from the GNU project, at http://www.gnu.org.
+ */
+
+package artofillusion.translators;
+
+import java.math.BigInteger;
+
+/**
+ *  FloatFormat writes floats as text, directly into a byte or char array.
+ *
+ *  By default each float is written with the fewest digits which read back
+ *  as the same float, found with the Ryu algorithm (Ulf Adams, "Ryu: Fast
+ *  Float-to-String Conversion", PLDI 2018). The text is laid out as by
+ *  Float.toString(): plain decimal from 10^-3 up to 10^7, otherwise
+ *  scientific notation (eg "1.5E-5"). As in Float.toString() (since JDK 19),
+ *  at least two digits are considered, so the smallest subnormal is
+ *  "1.4E-45" rather than "1.0E-45".
+ *
+ *  Alternatively, a maximum number of significant digits can be set. A
+ *  float which needs more digits is then rounded (half up, from its exact
+ *  binary value) to that many digits.
+ *
+ *  A FloatFormat keeps some state while formatting, so each thread needs
+ *  its own.
+ */
+
+public class FloatFormat
+{
+    /** the longest text written for a float */
+    public static final int MAX_LENGTH = 16;
+
+    /**
+     *  create a format which writes the shortest round-trip digits.
+     */
+    public FloatFormat()
+    { this(0); }
+
+    /**
+     *  create a format which writes at most <i>digits</i> significant
+     *  digits (or the shortest round-trip digits, if <i>digits</i> is zero
+     *  or negative).
+     */
+    public FloatFormat(int digits)
+    { this.digits = (digits > 0 ? Math.min(digits, 9) : 0); }
+
+    /**
+     *  get the maximum number of significant digits (zero if none).
+     */
+    public int getDigits()
+    { return digits; }
+
+    /**
+     *  format <i>f</i> into <i>buf</i>, starting at <i>pos</i>.
+     *
+     *  There must be room for MAX_LENGTH bytes.
+     *
+     *  @return the position after the last byte written
+     */
+    public int format(float f, byte[] buf, int pos)
+    {
+	int bits = Float.floatToIntBits(f);
+
+	if (f != f) return copy(NAN, buf, pos);
+
+	if (bits < 0) buf[pos++] = '-';
+	bits &= 0x7fffffff;
+
+	if (bits == 0x7f800000) return copy(INFINITY, buf, pos);
+	if (bits == 0) return copy(ZERO, buf, pos);
+
+	decimal(bits);
+
+	// the digits of the mantissa
+	byte[] dig = scratch;
+	int n = 0;
+	for (long m = mantissa; m > 0; m /= 10) dig[n++] = (byte) ('0' + m % 10);
+
+	// the number of digits before the decimal point
+	int point = n + exponent;
+
+	if (point >= -2 && point <= 7) {
+	    if (point <= 0) {
+		buf[pos++] = '0';
+		buf[pos++] = '.';
+		for (int x = point; x < 0; x++) buf[pos++] = '0';
+		for (int x = n-1; x >= 0; x--) buf[pos++] = dig[x];
+	    }
+	    else if (point < n) {
+		for (int x = n-1; x >= n-point; x--) buf[pos++] = dig[x];
+		buf[pos++] = '.';
+		for (int x = n-point-1; x >= 0; x--) buf[pos++] = dig[x];
+	    }
+	    else {
+		for (int x = n-1; x >= 0; x--) buf[pos++] = dig[x];
+		for (int x = n; x < point; x++) buf[pos++] = '0';
+		buf[pos++] = '.';
+		buf[pos++] = '0';
+	    }
+	}
+	else {
+	    buf[pos++] = dig[n-1];
+	    buf[pos++] = '.';
+	    if (n == 1) buf[pos++] = '0';
+	    else for (int x = n-2; x >= 0; x--) buf[pos++] = dig[x];
+
+	    buf[pos++] = 'E';
+
+	    int exp = point - 1;
+	    if (exp < 0) {
+		buf[pos++] = '-';
+		exp = -exp;
+	    }
+	    if (exp >= 10) buf[pos++] = (byte) ('0' + exp / 10);
+	    buf[pos++] = (byte) ('0' + exp % 10);
+	}
+
+	return pos;
+    }
+
+    /**
+     *  format <i>f</i> into <i>buf</i>, starting at <i>pos</i>.
+     *
+     *  There must be room for MAX_LENGTH chars.
+     *
+     *  @return the position after the last char written
+     */
+    public int format(float f, char[] buf, int pos)
+    {
+	int end = format(f, text, 0);
+	for (int x = 0; x < end; x++) buf[pos++] = (char) text[x];
+
+	return pos;
+    }
+
+    /**
+     *  format <i>f</i> as a String
+     */
+    public String toString(float f)
+    {
+	int end = format(f, text, 0);
+	return new String(text, 0, end, java.nio.charset.StandardCharsets.US_ASCII);
+    }
+
+    /**
+     *  convert a finite, positive, non-zero float (given by its bits) to
+     *  a decimal <i>mantissa</i> * 10^<i>exponent</i>.
+     *
+     *  This is Ryu's f2d(), except that it stops at two digits (as
+     *  above), and that it can round to a maximum number of digits.
+     */
+    private void decimal(int bits)
+    {
+	int ieeeMantissa = bits & ((1 << MANTISSA_BITS) - 1);
+	int ieeeExponent = bits >>> MANTISSA_BITS;
+
+	int e2;
+	long m2;
+	if (ieeeExponent == 0) {
+	    e2 = 1 - BIAS - MANTISSA_BITS - 2;
+	    m2 = ieeeMantissa;
+	}
+	else {
+	    e2 = ieeeExponent - BIAS - MANTISSA_BITS - 2;
+	    m2 = (1L << MANTISSA_BITS) | ieeeMantissa;
+	}
+
+	boolean acceptBounds = ((m2 & 1) == 0);
+
+	// the interval of valid decimal representations
+	long mv = 4 * m2;
+	long mp = 4 * m2 + 2;
+	int mmShift = (ieeeMantissa != 0 || ieeeExponent <= 1 ? 1 : 0);
+	long mm = 4 * m2 - 1 - mmShift;
+
+	// convert to a decimal power base
+	long vr, vp, vm;
+	int e10;
+	boolean vmIsTrailingZeros = false, vrIsTrailingZeros = false;
+	int lastRemovedDigit = 0;
+
+	if (e2 >= 0) {
+	    int q = log10Pow2(e2);
+	    e10 = q;
+	    int k = POW5_INV_BITCOUNT + pow5bits(q) - 1;
+	    int i = -e2 + q + k;
+	    vr = mulShift(mv, POW5_INV[q], i);
+	    vp = mulShift(mp, POW5_INV[q], i);
+	    vm = mulShift(mm, POW5_INV[q], i);
+
+	    if (q != 0 && (vp - 1) / 10 <= vm / 10) {
+		// we need the digit removed to get here, to round correctly
+		int l = POW5_INV_BITCOUNT + pow5bits(q - 1) - 1;
+		lastRemovedDigit = (int) (mulShift(mv, POW5_INV[q - 1],
+						   -e2 + q - 1 + l) % 10);
+	    }
+
+	    if (q <= 9) {
+		// only one of mp, mv and mm can be a multiple of 5, if any
+		if (mv % 5 == 0)
+		    vrIsTrailingZeros = multipleOfPowerOf5(mv, q);
+		else if (acceptBounds)
+		    vmIsTrailingZeros = multipleOfPowerOf5(mm, q);
+		else if (multipleOfPowerOf5(mp, q))
+		    vp--;
+	    }
+	}
+	else {
+	    int q = log10Pow5(-e2);
+	    e10 = q + e2;
+	    int i = -e2 - q;
+	    int k = pow5bits(i) - POW5_BITCOUNT;
+	    int j = q - k;
+	    vr = mulShift(mv, POW5[i], j);
+	    vp = mulShift(mp, POW5[i], j);
+	    vm = mulShift(mm, POW5[i], j);
+
+	    if (q != 0 && (vp - 1) / 10 <= vm / 10) {
+		j = q - 1 - (pow5bits(i + 1) - POW5_BITCOUNT);
+		lastRemovedDigit = (int) (mulShift(mv, POW5[i + 1], j) % 10);
+	    }
+
+	    if (q <= 1) {
+		// mv = 4 * m2, so it always has at least two trailing 0 bits
+		vrIsTrailingZeros = true;
+		if (acceptBounds) vmIsTrailingZeros = (mmShift == 1);
+		else vp--;
+	    }
+	    else if (q < 31) {
+		vrIsTrailingZeros = multipleOfPowerOf2(mv, q - 1);
+	    }
+	}
+
+	// keep the (exact) leading digits, for rounding to a fixed length
+	long full = vr;
+	int fullExp = e10;
+	int fullDigit = lastRemovedDigit;
+
+	// find the shortest representation in the interval
+	int removed = 0;
+	long output;
+
+	if (vmIsTrailingZeros || vrIsTrailingZeros) {
+	    // the general case (rare)
+	    while (vp / 10 > vm / 10 && vr >= 100) {
+		vmIsTrailingZeros &= (vm % 10 == 0);
+		vrIsTrailingZeros &= (lastRemovedDigit == 0);
+		lastRemovedDigit = (int) (vr % 10);
+		vr /= 10;
+		vp /= 10;
+		vm /= 10;
+		removed++;
+	    }
+
+	    if (vmIsTrailingZeros) {
+		while (vm % 10 == 0 && vr >= 100) {
+		    vrIsTrailingZeros &= (lastRemovedDigit == 0);
+		    lastRemovedDigit = (int) (vr % 10);
+		    vr /= 10;
+		    vp /= 10;
+		    vm /= 10;
+		    removed++;
+		}
+	    }
+
+	    // round to even if the exact number is .....50..0
+	    if (vrIsTrailingZeros && lastRemovedDigit == 5 && vr % 2 == 0)
+		lastRemovedDigit = 4;
+
+	    // take vr + 1 if vr is outside the bounds, or we need to round up
+	    output = vr + ((vr == vm && (!acceptBounds || !vmIsTrailingZeros))
+			   || lastRemovedDigit >= 5 ? 1 : 0);
+	}
+	else {
+	    // the common case
+	    while (vp / 10 > vm / 10 && vr >= 100) {
+		lastRemovedDigit = (int) (vr % 10);
+		vr /= 10;
+		vp /= 10;
+		vm /= 10;
+		removed++;
+	    }
+
+	    output = vr + (vr == vm || lastRemovedDigit >= 5 ? 1 : 0);
+	}
+
+	// having stopped at two digits, rounding up may leave the interval
+	if (output > vp) output = vr;
+
+	int exp = e10 + removed;
+
+	// drop trailing zeros
+	while (output % 10 == 0) {
+	    output /= 10;
+	    exp++;
+	}
+
+	// round to the maximum number of digits, if it is exceeded
+	if (digits > 0 && output >= POW10[digits]) {
+	    int drop = 0;
+	    int digit = fullDigit;
+	    while (full >= POW10[digits]) {
+		digit = (int) (full % 10);
+		full /= 10;
+		drop++;
+	    }
+
+	    output = full + (digit >= 5 ? 1 : 0);
+	    exp = fullExp + drop;
+
+	    while (output % 10 == 0) {
+		output /= 10;
+		exp++;
+	    }
+	}
+
+	mantissa = output;
+	exponent = exp;
+    }
+
+    private static int copy(byte[] text, byte[] buf, int pos)
+    {
+	System.arraycopy(text, 0, buf, pos, text.length);
+	return pos + text.length;
+    }
+
+    /* ceil(log2(5^e)) (or 1, for e == 0) */
+    private static int pow5bits(int e)
+    { return ((e * 1217359) >>> 19) + 1; }
+
+    /* floor(log10(2^e)) */
+    private static int log10Pow2(int e)
+    { return (e * 78913) >>> 18; }
+
+    /* floor(log10(5^e)) */
+    private static int log10Pow5(int e)
+    { return (e * 732923) >>> 20; }
+
+    private static boolean multipleOfPowerOf5(long value, int p)
+    {
+	int count = 0;
+	while (value > 0 && value % 5 == 0) {
+	    value /= 5;
+	    count++;
+	}
+
+	return count >= p;
+    }
+
+    private static boolean multipleOfPowerOf2(long value, int p)
+    { return (value & ((1L << p) - 1)) == 0; }
+
+    /* (m * factor) >> shift, for m < 2^32, factor < 2^64 and shift > 32 */
+    private static long mulShift(long m, long factor, int shift)
+    {
+	long bits0 = m * (factor & 0xffffffffL);
+	long bits1 = m * (factor >>> 32);
+	long sum = (bits0 >>> 32) + bits1;
+	return sum >>> (shift - 32);
+    }
+
+    private static byte[] ascii(String s)
+    { return s.getBytes(java.nio.charset.StandardCharsets.US_ASCII); }
+
+    private static final byte[] NAN = ascii("NaN");
+    private static final byte[] INFINITY = ascii("Infinity");
+    private static final byte[] ZERO = ascii("0.0");
+
+    private static final int MANTISSA_BITS = 23;
+    private static final int BIAS = 127;
+
+    private static final int POW5_BITCOUNT = 61;
+    private static final int POW5_INV_BITCOUNT = 59;
+
+    /*
+     *  the top POW5_BITCOUNT bits of 5^i, and (2^(pow5bits(q) - 1 +
+     *  POW5_INV_BITCOUNT) / 5^q) + 1, built once from exact values.
+     */
+    private static final long[] POW5 = new long[48];
+    private static final long[] POW5_INV = new long[32];
+    static {
+	for (int i = 0; i < POW5.length; i++) {
+	    BigInteger pow = BigInteger.valueOf(5).pow(i);
+	    int shift = pow.bitLength() - POW5_BITCOUNT;
+	    POW5[i] = (shift >= 0 ? pow.shiftRight(shift)
+		       : pow.shiftLeft(-shift)).longValue();
+
+	    if (i < POW5_INV.length)
+		POW5_INV[i] = BigInteger.ONE
+		    .shiftLeft(pow.bitLength() - 1 + POW5_INV_BITCOUNT)
+		    .divide(pow).add(BigInteger.ONE).longValue();
+	}
+    }
+
+    private static final long[] POW10 = new long[19];
+    static {
+	POW10[0] = 1;
+	for (int x = 1; x < POW10.length; x++) POW10[x] = POW10[x-1] * 10;
+    }
+
+    private final int digits;
+
+    /* the result of decimal() */
+    private long mantissa;
+    private int exponent;
+
+    private final byte[] scratch = new byte[20];
+    private final byte[] text = new byte[MAX_LENGTH];
+}
@@ -0,0 +1,304 @@
+/*
+ * ManifoldCheck: part of the STLTranslator plugin for Art of Illusion.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See version 2 of the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * with this program. If not, the license, including version 2, is available
+ * from the GNU project, at http://www.gnu.org.
+ */
+
+package artofillusion.translators;
+
+import artofillusion.object.*;
+
+import java.io.*;
+
+/**
+ *  ManifoldCheck checks that a triangle mesh is a closed, consistently
+ *  wound (ie printable) surface, working directly on its face indices.
+ *
+ *  One pass over the faces counts the uses of each (undirected) edge, in
+ *  each direction, in a primitive open-addressed hash table. Then:
+ *  <ul>
+ *  <li> an edge used by one face is a <i>boundary</i> edge;
+ *  <li> an edge used by more than two faces is <i>non-manifold</i>;
+ *  <li> an edge used twice in the same direction joins two faces of
+ *	opposite <i>winding</i>;
+ *  <li> each connected run of boundary edges (found by union-find over
+ *	their vertices) is one <i>hole</i>.
+ *  </ul>
+ *  Faces which use a vertex more than once are counted as
+ *  <i>degenerate</i>, and their edges ignored.
+ *
+ *  The time taken is linear in the number of faces, and no AOI edge
+ *  structure is needed, so a mesh can be checked before (or without) a
+ *  TriangleMesh being built.
+ */
+
+public class ManifoldCheck
+{
+    /** the number of faces and vertices checked */
+    public int faces, vertices;
+
+    /** the number of distinct edges */
+    public int edges;
+
+    /** the number of edges used by only one face */
+    public int boundaryEdges;
+
+    /** the number of edges used by more than two faces */
+    public int nonManifoldEdges;
+
+    /** the number of edges joining faces of opposite winding */
+    public int windingErrors;
+
+    /** the number of faces using a vertex more than once */
+    public int degenerateFaces;
+
+    /** the number of holes (connected loops of boundary edges) */
+    public int holes;
+
+    /**
+     *  check the faces of a TriangleMesh.
+     */
+    public static ManifoldCheck check(TriangleMesh mesh)
+    {
+	TriangleMesh.Face[] face = mesh.getFaces();
+	int[] index = new int[face.length*3];
+
+	for (int x = 0, pos = 0; x < face.length; x++) {
+	    index[pos++] = face[x].v1;
+	    index[pos++] = face[x].v2;
+	    index[pos++] = face[x].v3;
+	}
+
+	return check(index, face.length, mesh.getVertices().length);
+    }
+
+    /**
+     *  check the faces of a MeshBuffer.
+     */
+    public static ManifoldCheck check(MeshBuffer buffer)
+    {
+	return check(buffer.getFaces(), buffer.getFaceCount(),
+		     buffer.getVertexCount());
+    }
+
+    /**
+     *  check <i>count</i> faces, given as 3 vertex indices each (each
+     *  less than <i>vertices</i>).
+     */
+    public static ManifoldCheck check(int[] index, int count, int vertices)
+    {
+	ManifoldCheck result = new ManifoldCheck();
+	result.faces = count;
+	result.vertices = vertices;
+
+	EdgeTable table = new EdgeTable(count);
+
+	for (int x = 0, pos = 0; x < count; x++, pos += 3) {
+	    int v1 = index[pos], v2 = index[pos+1], v3 = index[pos+2];
+
+	    if (v1 == v2 || v2 == v3 || v3 == v1) {
+		result.degenerateFaces++;
+		continue;
+	    }
+
+	    table.add(v1, v2);
+	    table.add(v2, v3);
+	    table.add(v3, v1);
+	}
+
+	result.edges = table.size;
+
+	// union-find over the vertices of the boundary edges
+	int[] parent = null;
+	int roots = 0;
+
+	long[] keys = table.keys;
+	int[] uses = table.uses;
+
+	for (int x = 0; x < keys.length; x++) {
+	    if (keys[x] == EMPTY) continue;
+
+	    int fwd = uses[x] & 0xffff, rev = uses[x] >>> 16;
+	    int total = fwd + rev;
+
+	    if (total == 1) {
+		result.boundaryEdges++;
+
+		if (parent == null) {
+		    parent = new int[vertices];
+		    for (int v = 0; v < vertices; v++) parent[v] = -1;
+		}
+
+		int a = (int) (keys[x] >>> 32), b = (int) keys[x];
+
+		// a vertex joins the forest when first seen
+		if (parent[a] < 0) {
+		    parent[a] = a;
+		    roots++;
+		}
+		if (parent[b] < 0) {
+		    parent[b] = b;
+		    roots++;
+		}
+
+		a = find(parent, a);
+		b = find(parent, b);
+		if (a != b) {
+		    parent[a] = b;
+		    roots--;
+		}
+	    }
+	    else if (total > 2) result.nonManifoldEdges++;
+	    else if (fwd == 2 || rev == 2) result.windingErrors++;
+	}
+
+	result.holes = roots;
+	return result;
+    }
+
+    /**
+     *  is the mesh a closed, consistently wound surface?
+     */
+    public boolean isClosed()
+    {
+	return (boundaryEdges == 0 && nonManifoldEdges == 0
+		&& windingErrors == 0 && degenerateFaces == 0);
+    }
+
+    /**
+     *  write a line for each problem found.
+     *
+     *  @return true if there were no problems
+     */
+    public boolean report(Writer err)
+	throws IOException
+    {
+	if (boundaryEdges > 0)
+	    err.write("validate: " + boundaryEdges + " boundary edges, in "
+		      + holes + (holes == 1 ? " hole\n" : " holes\n"));
+
+	if (nonManifoldEdges > 0)
+	    err.write("validate: " + nonManifoldEdges
+		      + " edges shared by more than two faces\n");
+
+	if (windingErrors > 0)
+	    err.write("validate: " + windingErrors
+		      + " edges join faces of opposite winding\n");
+
+	if (degenerateFaces > 0)
+	    err.write("validate: " + degenerateFaces
+		      + " faces use a vertex more than once\n");
+
+	return isClosed();
+    }
+
+    /**
+     *  find the root of a vertex, halving the path as we go.
+     */
+    private static int find(int[] parent, int v)
+    {
+	while (parent[v] != v) {
+	    parent[v] = parent[parent[v]];
+	    v = parent[v];
+	}
+
+	return v;
+    }
+
+    /* an empty slot (no edge joins a vertex to itself) */
+    private static final long EMPTY = -1L;
+
+    /**
+     *  an open-addressed hash table of edges, keyed on the (lower, higher)
+     *  vertex indices packed into a long, holding the number of uses of
+     *  each edge from lower to higher (low 16 bits) and from higher to
+     *  lower (high 16 bits). The counts stick at their maximum.
+     */
+    private static class EdgeTable
+    {
+	long[] keys;
+	int[] uses;
+	int size, mask;
+
+	EdgeTable(int faces)
+	{
+	    // a closed mesh has 1.5 edges per face
+	    int cap = 16;
+	    while (cap < faces*2L && cap < (1 << 30)) cap <<= 1;
+
+	    alloc(cap);
+	}
+
+	void add(int a, int b)
+	{
+	    int inc = 1;
+	    if (a > b) {
+		int t = a;
+		a = b;
+		b = t;
+		inc = 1 << 16;
+	    }
+
+	    long key = ((long) a << 32) | (b & 0xffffffffL);
+
+	    int slot = hash(key) & mask;
+	    while (keys[slot] != EMPTY && keys[slot] != key)
+		slot = (slot + 1) & mask;
+
+	    if (keys[slot] == EMPTY) {
+		keys[slot] = key;
+		uses[slot] = inc;
+
+		if (++size > (mask >> 1) + (mask >> 2)) grow();
+		return;
+	    }
+
+	    int u = uses[slot];
+	    if (inc == 1 ? (u & 0xffff) < 0xffff : (u >>> 16) < 0xffff)
+		uses[slot] = u + inc;
+	}
+
+	private void alloc(int cap)
+	{
+	    keys = new long[cap];
+	    uses = new int[cap];
+	    mask = cap - 1;
+	    java.util.Arrays.fill(keys, EMPTY);
+	}
+
+	private void grow()
+	{
+	    long[] oldKeys = keys;
+	    int[] oldUses = uses;
+
+	    alloc(keys.length * 2);
+
+	    for (int x = 0; x < oldKeys.length; x++) {
+		if (oldKeys[x] == EMPTY) continue;
+
+		int slot = hash(oldKeys[x]) & mask;
+		while (keys[slot] != EMPTY) slot = (slot + 1) & mask;
+
+		keys[slot] = oldKeys[x];
+		uses[slot] = oldUses[x];
+	    }
+	}
+
+	private static int hash(long key)
+	{
+	    long h = key * 0x9E3779B97F4A7C15L;
+	    return (int) (h ^ (h >>> 32));
+	}
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * MappedSTLWriter: part of the STLTranslator plugin for Art of Illusion.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See version 2 of the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * with this program. If not, the license, including version 2, is available
+ * from the GNU project, at http://www.gnu.org.
+ */
+
+package artofillusion.translators;
+
+import artofillusion.math.*;
+import artofillusion.object.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.*;
+
+/**
+ *  MappedSTLWriter writes a binary STL file through a mapping, on several
+ *  threads.
+ *
+ *  A binary STL file of <i>n</i> facets is exactly 84 + 50<i>n</i> bytes,
+ *  so the offset of each mesh's facet records is the total of the facets
+ *  before it. The meshes are taken in file order, and the facets of each
+ *  (split into slices, for a large mesh) are written straight to their
+ *  place in the mapping by a pool of worker threads, in no particular
+ *  order, while the next mesh is prepared.
+ *
+ *  The file grows as the meshes are added: each window of the file is
+ *  mapped (and remapped) only as far as the facets written so far, so the
+ *  file never holds more than 84 + 50<i>n</i> bytes, and need not shrink
+ *  while a mapping is live. The count is written into the header on
+ *  close().
+ *
+ *  The bytes written are exactly those of BinarySTLWriter.
+ */
+
+public class MappedSTLWriter
+{
+    /** the number of facets written by each task */
+    public static final int SLICE_FACES = 1024*64;
+
+    /** the number of facets in each mapping of the file */
+    public static final int WINDOW_FACETS = 1024*1024*8;
+
+    /**
+     *  create a writer of an (empty) file.
+     *
+     *  The channel must be open to read and write, and the file should be
+     *  empty (it is truncated to the facets written, on close()).
+     *
+     *  @param parallelism the number of threads writing facets
+     */
+    public MappedSTLWriter(FileChannel chan, int parallelism)
+	throws IOException
+    {
+	this.chan = chan;
+	this.parallelism = parallelism;
+
+	if (parallelism > 1) pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     *  write the header: 80 bytes of text (truncated or padded with
+     *  spaces), followed by (room for) the number of facets.
+     */
+    public void writeHeader(String text)
+	throws IOException
+    {
+	MappedByteBuffer buf = chan.map(FileChannel.MapMode.READ_WRITE, 0,
+					BinarySTLWriter.HEADER_SIZE);
+	buf.order(ByteOrder.LITTLE_ENDIAN);
+	header = buf;
+
+	int len = Math.min(text.length(), 80);
+	for (int x = 0; x < len; x++) buf.put((byte) text.charAt(x));
+	for (int x = len; x < 80; x++) buf.put((byte) ' ');
+
+	buf.putInt(0);
+    }
+
+    /**
+     *  write the facets of a mesh, transformed by <i>trans</i>, after
+     *  those written so far.
+     *
+     *  The mesh is read by the worker threads after this returns, so it
+     *  must not be changed until the writer is closed.
+     */
+    public void writeMesh(TriangleMesh mesh, final Mat4 trans)
+	throws IOException, InterruptedException
+    {
+	final WorldMesh world = new WorldMesh();
+	world.load(mesh);
+
+	final int verts = world.getVertexCount(), count = world.getFaceCount();
+	final long first = facets;
+
+	// map the facets of this mesh, before any task writes them
+	extend(first + count);
+	facets += count;
+
+	if (pool == null) {
+	    world.transform(trans, 0, verts);
+	    world.normals(trans, 0, count);
+	    put(world, 0, count, first);
+	    return;
+	}
+
+	if (count <= SLICE_FACES) {
+	    queue(pool.submit(() -> {
+			world.transform(trans, 0, verts);
+			world.normals(trans, 0, count);
+			put(world, 0, count, first);
+			return null;
+		    }));
+	    return;
+	}
+
+	// every vertex must be in place before any facet is written
+	ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+	for (int start = 0; start < verts; start += SLICE_FACES) {
+	    final int from = start, to = Math.min(start + SLICE_FACES, verts);
+	    tasks.add(() -> {
+		    world.transform(trans, from, to);
+		    return null;
+		});
+	}
+
+	for (Future<Void> done : pool.invokeAll(tasks)) check(done);
+
+	for (int start = 0; start < count; start += SLICE_FACES) {
+	    final int from = start, to = Math.min(start + SLICE_FACES, count);
+	    queue(pool.submit(() -> {
+			world.normals(trans, from, to);
+			put(world, from, to, first + from);
+			return null;
+		    }));
+	}
+    }
+
+    /**
+     *  get the number of facets written.
+     */
+    public long getFacetCount()
+    { return facets; }
+
+    /**
+     *  wait for every facet to be written, write the number of facets into
+     *  the header, force the mappings to the file, and release them and
+     *  the worker threads. The file is truncated to the facets written.
+     */
+    public void close()
+	throws IOException
+    {
+	try {
+	    while (!pending.isEmpty()) check(pending.remove());
+
+	    if (header != null) {
+		header.putInt(80, (int) facets);
+		header.force();
+	    }
+
+	    for (MappedByteBuffer map : windows) map.force();
+
+	    // (the file is no longer than this unless it was not empty)
+	    if (header != null)
+		chan.truncate(BinarySTLWriter.HEADER_SIZE
+			      + facets * BinarySTLWriter.FACET_SIZE);
+	}
+	catch (InterruptedException e) {
+	    throw new InterruptedIOException();
+	}
+	finally {
+	    if (pool != null) pool.shutdownNow();
+	    pending.clear();
+
+	    // drop the mappings, so they can be unmapped (while one is live,
+	    // the file cannot be truncated or deleted on some platforms)
+	    header = null;
+	    synchronized (windows) {
+		windows.clear();
+	    }
+	}
+    }
+
+    /**
+     *  write the facets <i>from</i> (inclusive) to <i>to</i> (exclusive)
+     *  of a mesh, the first as facet number <i>first</i> of the file.
+     */
+    private void put(WorldMesh world, int from, int to, long first)
+	throws IOException
+    {
+	float[][] norm = world.getNormals(), coord = world.getCoords();
+	int[][] face = world.getFaces();
+
+	float[] nx = norm[0], ny = norm[1], nz = norm[2];
+	float[] x = coord[0], y = coord[1], z = coord[2];
+	int[] f1 = face[0], f2 = face[1], f3 = face[2];
+
+	long facet = first;
+	ByteBuffer buf = null;
+	int pos = 0;
+
+	for (int i = from; i < to; i++, facet++) {
+	    int off = (int) (facet % WINDOW_FACETS);
+	    if (buf == null || off == 0) {
+		buf = window((int) (facet / WINDOW_FACETS));
+		pos = off * BinarySTLWriter.FACET_SIZE;
+	    }
+
+	    int v1 = f1[i], v2 = f2[i], v3 = f3[i];
+
+	    pos = putFloat(buf, pos, nx[i]);
+	    pos = putFloat(buf, pos, ny[i]);
+	    pos = putFloat(buf, pos, nz[i]);
+	    pos = putFloat(buf, pos, x[v1]);
+	    pos = putFloat(buf, pos, y[v1]);
+	    pos = putFloat(buf, pos, z[v1]);
+	    pos = putFloat(buf, pos, x[v2]);
+	    pos = putFloat(buf, pos, y[v2]);
+	    pos = putFloat(buf, pos, z[v2]);
+	    pos = putFloat(buf, pos, x[v3]);
+	    pos = putFloat(buf, pos, y[v3]);
+	    pos = putFloat(buf, pos, z[v3]);
+	    buf.putShort(pos, PADDING);
+	    pos += 2;
+	}
+    }
+
+    private static int putFloat(ByteBuffer buf, int pos, float val)
+    {
+	buf.putInt(pos, Float.floatToIntBits(val));
+	return pos + 4;
+    }
+
+    /**
+     *  map the file as far as facet number <i>end</i> (exclusive), which
+     *  grows it: each window up to that facet is mapped, or remapped if
+     *  its mapping ends before it.
+     */
+    private void extend(long end)
+	throws IOException
+    {
+	synchronized (windows) {
+	    for (int x = (int) (facets / WINDOW_FACETS);
+		 (long) x * WINDOW_FACETS < end; x++) {
+
+		long start = (long) x * WINDOW_FACETS;
+		long len = Math.min(WINDOW_FACETS, end - start);
+
+		if (x < windows.size()
+		    && windows.get(x).capacity() >= len * BinarySTLWriter.FACET_SIZE)
+		    continue;
+
+		// (a task still writing through an older mapping keeps it,
+		// and its writes reach the same pages)
+		MappedByteBuffer map =
+		    chan.map(FileChannel.MapMode.READ_WRITE,
+			     BinarySTLWriter.HEADER_SIZE
+			     + start * BinarySTLWriter.FACET_SIZE,
+			     len * BinarySTLWriter.FACET_SIZE);
+
+		if (x < windows.size()) windows.set(x, map);
+		else windows.add(map);
+	    }
+	}
+    }
+
+    /**
+     *  get (a view of) the mapping of window <i>x</i>, which extend() has
+     *  mapped.
+     *
+     *  Each view is used by one thread, and written only through absolute
+     *  puts, so threads writing different facets do not interfere.
+     */
+    private ByteBuffer window(int x)
+    {
+	synchronized (windows) {
+	    return windows.get(x).duplicate().order(ByteOrder.LITTLE_ENDIAN);
+	}
+    }
+
+    /**
+     *  queue a task, first waiting for the oldest if too many are queued.
+     */
+    private void queue(Future<Void> task)
+	throws IOException, InterruptedException
+    {
+	pending.add(task);
+	while (pending.size() > parallelism*2) check(pending.remove());
+    }
+
+    /**
+     *  wait for a task, passing on any exception it threw.
+     */
+    private static void check(Future<Void> task)
+	throws IOException, InterruptedException
+    {
+	try {
+	    task.get();
+	}
+	catch (ExecutionException e) {
+	    Throwable cause = e.getCause();
+	    if (cause instanceof IOException) throw (IOException) cause;
+	    if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+	    if (cause instanceof Error) throw (Error) cause;
+	    throw new IOException(cause);
+	}
+    }
+
+    /* two spaces */
+    private static final short PADDING = 0x2020;
+
+    private final FileChannel chan;
+    private final int parallelism;
+
+    /* the number of facets written (or being written) */
+    private long facets;
+
+    private ForkJoinPool pool;
+    private MappedByteBuffer header;
+
+    /* the mapping of each window of the file */
+    private final ArrayList<MappedByteBuffer> windows =
+	new ArrayList<MappedByteBuffer>();
+
+    /* tasks not yet known to be done */
+    private ArrayDeque<Future<Void>> pending = new ArrayDeque<Future<Void>>();
+}
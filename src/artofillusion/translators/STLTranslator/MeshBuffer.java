@@ -0,0 +1,196 @@
+/*
+ * MeshBuffer: part of the STLTranslator plugin for Art of Illusion.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See version 2 of the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * with this program. If not, the license, including version 2, is available
+ * from the GNU project, at http://www.gnu.org.
+ */
+
+package artofillusion.translators;
+
+import artofillusion.math.*;
+import artofillusion.object.*;
+
+import java.util.Arrays;
+
+/**
+ *  MeshBuffer is a staging area for a mesh being imported.
+ *
+ *  Vertices are welded (see VertexWeld) into a single primitive coordinate
+ *  array, and faces are held as a flat array of vertex indices, 3 per
+ *  face. Nothing is allocated per vertex or per face until toMesh()
+ *  builds the final TriangleMesh, copying each array once.
+ *
+ *  A MeshBuffer can be cleared and reused, keeping its storage.
+ */
+
+public class MeshBuffer
+{
+    /**
+     *  create a buffer sized for the expected number of faces.
+     */
+    public MeshBuffer(int faces)
+    {
+	if (faces < 16) faces = 16;
+
+	weld = new VertexWeld(VertexWeld.expected(faces));
+	index = new int[(int) Math.min(faces * 3L, Integer.MAX_VALUE - 8)];
+    }
+
+    /**
+     *  estimate the number of faces in an ASCII STL file of <i>size</i>
+     *  bytes.
+     *
+     *  A facet is seven lines, and typically 200-300 bytes.
+     */
+    public static int expectedAscii(long size)
+    {
+	return (int) Math.min(size / 250 + 16, Integer.MAX_VALUE/8);
+    }
+
+    /**
+     *  add a vertex, unless an identical vertex is already present.
+     *
+     *  @return the index of the vertex
+     */
+    public int addVertex(double x, double y, double z)
+    { return weld.add(x, y, z); }
+
+    /**
+     *  add a face, defined by the indices of its 3 vertices.
+     */
+    public void addFace(int v1, int v2, int v3)
+    {
+	if (fcount*3 + 3 > index.length) grow(fcount + 1);
+
+	int pos = fcount*3;
+	index[pos] = v1;
+	index[pos+1] = v2;
+	index[pos+2] = v3;
+
+	fcount++;
+    }
+
+    /**
+     *  append the contents of another buffer to this one.
+     *
+     *  The vertices of <i>other</i> are welded into this buffer, in order,
+     *  so the result is the same as if the faces of <i>other</i> had been
+     *  added to this buffer directly.
+     */
+    public void append(MeshBuffer other)
+    {
+	double[] coords = other.getCoords();
+	int[] map = new int[other.getVertexCount()];
+
+	for (int x = 0, pos = 0; x < map.length; x++, pos += 3)
+	    map[x] = weld.add(coords[pos], coords[pos+1], coords[pos+2]);
+
+	grow(fcount + other.fcount);
+
+	int[] src = other.index;
+	int max = other.fcount*3;
+	int pos = fcount*3;
+	for (int x = 0; x < max; x++) index[pos++] = map[src[x]];
+
+	fcount += other.fcount;
+    }
+
+    /**
+     *  get the number of distinct vertices
+     */
+    public int getVertexCount()
+    { return weld.size(); }
+
+    /**
+     *  get the number of faces
+     */
+    public int getFaceCount()
+    { return fcount; }
+
+    /**
+     *  get the vertex coordinates, as consecutive (x, y, z) triples.
+     *
+     *  The array may be longer than 3*getVertexCount().
+     */
+    public double[] getCoords()
+    { return weld.getCoords(); }
+
+    /**
+     *  get the face vertex indices, 3 per face.
+     *
+     *  The array may be longer than 3*getFaceCount().
+     */
+    public int[] getFaces()
+    { return index; }
+
+    /**
+     *  extend <i>bounds</i> to include every vertex in this buffer.
+     */
+    public void extendBounds(BoundingBox bounds)
+    {
+	double[] box = {
+	    bounds.minx, bounds.miny, bounds.minz,
+	    bounds.maxx, bounds.maxy, bounds.maxz
+	};
+
+	MeshKernels.get().bounds(weld.getCoords(), weld.size(), box);
+
+	bounds.minx = box[0];
+	bounds.miny = box[1];
+	bounds.minz = box[2];
+	bounds.maxx = box[3];
+	bounds.maxy = box[4];
+	bounds.maxz = box[5];
+    }
+
+    /**
+     *  build a TriangleMesh from the contents of this buffer.
+     */
+    public TriangleMesh toMesh()
+    {
+	double[] coords = weld.getCoords();
+	Vec3[] vertArray = new Vec3[weld.size()];
+	for (int x = 0, pos = 0; x < vertArray.length; x++, pos += 3)
+	    vertArray[x] = new Vec3(coords[pos], coords[pos+1], coords[pos+2]);
+
+	int[][] faceArray = new int[fcount][];
+	for (int x = 0, pos = 0; x < fcount; x++, pos += 3)
+	    faceArray[x] = new int[] { index[pos], index[pos+1], index[pos+2] };
+
+	return new TriangleMesh(vertArray, faceArray);
+    }
+
+    /**
+     *  remove all vertices and faces, keeping the allocated storage.
+     */
+    public void clear()
+    {
+	weld.clear();
+	fcount = 0;
+    }
+
+    /**
+     *  ensure there is room for at least <i>faces</i> faces.
+     */
+    private void grow(int faces)
+    {
+	if (faces*3L <= index.length) return;
+
+	long size = Math.max(faces*3L, index.length * 2L);
+	index = Arrays.copyOf(index, (int) Math.min(size, Integer.MAX_VALUE - 8));
+    }
+
+    private VertexWeld weld;
+    private int[] index;
+    private int fcount;
+}
@@ -0,0 +1,233 @@
+/*
+ * MeshKernels: part of the STLTranslator plugin for Art of Illusion.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See version 2 of the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * with this program. If not, the license, including version 2, is available
+ * from the GNU project, at http://www.gnu.org.
+ */
+
+package artofillusion.translators;
+
+import artofillusion.math.*;
+
+/**
+ *  MeshKernels holds the per-vertex and per-facet arithmetic of the import
+ *  and export: transforming vertices, calculating face normals, comparing
+ *  the normals read with those calculated, and finding bounds.
+ *
+ *  This class does the work one element at a time. If the JVM has the
+ *  (incubating) Vector API - ie it was started with
+ *  <tt>--add-modules jdk.incubator.vector</tt> - and the plugin was built
+ *  with VectorMeshKernels, get() returns that instead, which does some of
+ *  the work several elements at a time.
+ *
+ *  Every kernel does the same arithmetic, in the same order, either way,
+ *  so the results are identical, bit for bit.
+ */
+
+public class MeshKernels
+{
+    /** the system property which (if "false") disables the vector kernels */
+    public static final String VECTOR_PROPERTY =
+	"artofillusion.translators.vector";
+
+    /**
+     *  get the fastest kernels available.
+     */
+    public static MeshKernels get()
+    {
+	if (best == null) best = load();
+	return best;
+    }
+
+    /**
+     *  get the kernels which work one element at a time.
+     */
+    public static MeshKernels scalar()
+    { return SCALAR; }
+
+    /**
+     *  get a short description of these kernels
+     */
+    public String getName()
+    { return "scalar"; }
+
+    /**
+     *  transform the (local) vertices <i>from</i> (inclusive) to <i>to</i>
+     *  (exclusive) into world coordinates, exactly as by Mat4.times(),
+     *  each then cast to a float.
+     *
+     *  @param local the x, y and z arrays of the local coordinates
+     *  @param world the x, y and z arrays to receive the world coordinates
+     */
+    public void transform(Mat4 m, double[][] local, float[][] world,
+			  int from, int to)
+    {
+	double[] px = local[0], py = local[1], pz = local[2];
+	float[] wx = world[0], wy = world[1], wz = world[2];
+
+	for (int i = from; i < to; i++) {
+	    double x = px[i], y = py[i], z = pz[i];
+	    double w = m.m41*x + m.m42*y + m.m43*z + m.m44;
+
+	    wx[i] = (float) ((m.m11*x + m.m12*y + m.m13*z + m.m14)/w);
+	    wy[i] = (float) ((m.m21*x + m.m22*y + m.m23*z + m.m24)/w);
+	    wz[i] = (float) ((m.m31*x + m.m32*y + m.m33*z + m.m34)/w);
+	}
+    }
+
+    /**
+     *  calculate the (world) normals of the faces <i>from</i> (inclusive)
+     *  to <i>to</i> (exclusive): the normalized cross product of two
+     *  (local) edges, rotated as by Mat4.timesDirection(), each then cast
+     *  to a float.
+     *
+     *  @param local the x, y and z arrays of the local coordinates
+     *  @param face the arrays of the first, second and third vertex index
+     *		of each face
+     *  @param normal the x, y and z arrays to receive the normals
+     */
+    public void normals(Mat4 m, double[][] local, int[][] face,
+			float[][] normal, int from, int to)
+    {
+	double[] px = local[0], py = local[1], pz = local[2];
+	int[] f1 = face[0], f2 = face[1], f3 = face[2];
+	float[] nx = normal[0], ny = normal[1], nz = normal[2];
+
+	for (int i = from; i < to; i++) {
+	    int v1 = f1[i], v2 = f2[i], v3 = f3[i];
+
+	    double ax = px[v2] - px[v1], ay = py[v2] - py[v1],
+		az = pz[v2] - pz[v1];
+	    double bx = px[v3] - px[v1], by = py[v3] - py[v1],
+		bz = pz[v3] - pz[v1];
+
+	    double x = ay*bz - az*by, y = az*bx - ax*bz, z = ax*by - ay*bx;
+
+	    double len = Math.sqrt(x*x + y*y + z*z);
+	    if (len > 0.0) {
+		x /= len;
+		y /= len;
+		z /= len;
+	    }
+
+	    nx[i] = (float) (m.m11*x + m.m12*y + m.m13*z);
+	    ny[i] = (float) (m.m21*x + m.m22*y + m.m23*z);
+	    nz[i] = (float) (m.m31*x + m.m32*y + m.m33*z);
+	}
+    }
+
+    /**
+     *  project the normal read for each of <i>count</i> faces onto the
+     *  (unit) normal calculated from its vertices, as FacetDiagnostics
+     *  does.
+     *
+     *  @param coords the vertex coordinates, as (x, y, z) triples
+     *  @param faces the face vertex indices, 3 per face
+     *  @param first the first face
+     *  @param read the x, y and z arrays of the normals read, from index 0
+     *  @param out receives the projection for each face, from index 0
+     */
+    public void projections(double[] coords, int[] faces, int first,
+			    float[][] read, double[] out, int count)
+    {
+	float[] rx = read[0], ry = read[1], rz = read[2];
+
+	for (int k = 0, f = first*3; k < count; k++, f += 3)
+	    out[k] = project(rx[k], ry[k], rz[k], coords, faces[f]*3,
+			     faces[f+1]*3, faces[f+2]*3);
+    }
+
+    /**
+     *  extend a box to include <i>count</i> vertices.
+     *
+     *  A coordinate which is not a number is ignored.
+     *
+     *  @param coords the vertex coordinates, as (x, y, z) triples
+     *  @param box the box, as { minx, miny, minz, maxx, maxy, maxz }
+     */
+    public void bounds(double[] coords, int count, double[] box)
+    { bounds(coords, 0, count*3, box); }
+
+    /**
+     *  project a normal read onto the normal calculated from the vertices
+     *  at (coordinate) offsets <i>v1</i>, <i>v2</i> and <i>v3</i>.
+     */
+    protected static double project(double nx, double ny, double nz,
+				    double[] coords, int v1, int v2, int v3)
+    {
+	// (v2 - v1) x (v3 - v1)
+	double ax = coords[v2] - coords[v1];
+	double ay = coords[v2+1] - coords[v1+1];
+	double az = coords[v2+2] - coords[v1+2];
+	double bx = coords[v3] - coords[v1];
+	double by = coords[v3+1] - coords[v1+1];
+	double bz = coords[v3+2] - coords[v1+2];
+
+	double cx = ay*bz - az*by;
+	double cy = az*bx - ax*bz;
+	double cz = ax*by - ay*bx;
+
+	double len = Math.sqrt(cx*cx + cy*cy + cz*cz);
+	if (len > 0.0) {
+	    cx /= len;
+	    cy /= len;
+	    cz /= len;
+	}
+
+	len = Math.sqrt(nx*nx + ny*ny + nz*nz);
+	return (nx*cx + ny*cy + nz*cz) / len;
+    }
+
+    /**
+     *  extend a box to include the coordinates from offset <i>from</i>
+     *  (which must start a vertex) to offset <i>to</i>.
+     */
+    protected static void bounds(double[] coords, int from, int to,
+				 double[] box)
+    {
+	for (int pos = from; pos < to; pos += 3) {
+	    double x = coords[pos], y = coords[pos+1], z = coords[pos+2];
+
+	    if (x < box[0]) box[0] = x;
+	    if (x > box[3]) box[3] = x;
+	    if (y < box[1]) box[1] = y;
+	    if (y > box[4]) box[4] = y;
+	    if (z < box[2]) box[2] = z;
+	    if (z > box[5]) box[5] = z;
+	}
+    }
+
+    /**
+     *  load the vector kernels, if they (and the Vector API) are present.
+     */
+    private static MeshKernels load()
+    {
+	if ("false".equals(System.getProperty(VECTOR_PROPERTY))) return SCALAR;
+
+	try {
+	    Class<?> cls = Class.forName(MeshKernels.class.getPackage().getName()
+					 + ".VectorMeshKernels");
+	    MeshKernels kernels = (MeshKernels) cls.getConstructor().newInstance();
+
+	    System.out.println("STL: using " + kernels.getName() + " kernels");
+	    return kernels;
+	}
+	catch (Exception | LinkageError e) {
+	    // the Vector API is not in this JVM, or the kernels were not built
+	    return SCALAR;
+	}
+    }
+
+    private static final MeshKernels SCALAR = new MeshKernels();
+    private static volatile MeshKernels best;
+}
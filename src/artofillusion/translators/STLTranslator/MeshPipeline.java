@@ -0,0 +1,187 @@
+/*
+ * MeshPipeline: part of the STLTranslator plugin for Art of Illusion.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See version 2 of the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * with this program. If not, the license, including version 2, is available
+ * from the GNU project, at http://www.gnu.org.
+ */
+
+package artofillusion.translators;
+
+import artofillusion.object.*;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ *  MeshPipeline tessellates the objects of a list, in order, ahead of the
+ *  code writing them.
+ *
+ *  Objects are tessellated (through a TessellationCache) on a pool of
+ *  worker threads, while the caller writes the meshes already returned by
+ *  next(). Work runs ahead only while the meshes tessellated but not yet
+ *  taken hold less than <i>limit</i> bytes (estimated), so memory use is
+ *  bounded however large the scene. (Since the size of a mesh is only
+ *  known once it is made, the limit may be exceeded by the meshes in
+ *  progress.)
+ *
+ *  With a parallelism of 1 or less, each object is tessellated by next()
+ *  itself.
+ */
+
+public class MeshPipeline
+{
+    /**
+     *  create a pipeline over a list of ObjectInfo.
+     *
+     *  @param tol the surface error of the tessellation
+     *  @param parallelism the number of threads tessellating objects
+     *  @param limit the (estimated) bytes of meshes to hold ahead
+     */
+    public MeshPipeline(List list, TessellationCache cache, double tol,
+			int parallelism, long limit)
+    {
+	int max = list.size();
+	objects = new Object3D[max];
+	for (int x = 0; x < max; x++)
+	    objects[x] = ((ObjectInfo) list.get(x)).object;
+
+	this.cache = cache;
+	this.tol = tol;
+	this.parallelism = parallelism;
+	this.limit = limit;
+
+	if (parallelism > 1 && max > 1) {
+	    meshes = new TriangleMesh[max];
+	    sizes = new long[max];
+	    ready = new boolean[max];
+	    pool = new ForkJoinPool(parallelism);
+	}
+    }
+
+    /**
+     *  is there another mesh?
+     */
+    public synchronized boolean hasNext()
+    { return (taken < objects.length); }
+
+    /**
+     *  get the tessellation of the next object in the list, waiting for
+     *  it if necessary.
+     *
+     *  @return the mesh, or <i>null</i> if the object cannot be converted
+     */
+    public synchronized TriangleMesh next()
+	throws InterruptedException
+    {
+	if (taken >= objects.length) throw new NoSuchElementException();
+
+	if (pool == null) return cache.get(objects[taken++], tol);
+
+	refill();
+	while (!ready[taken] && failure == null) wait();
+
+	if (failure != null) {
+	    if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+	    if (failure instanceof Error) throw (Error) failure;
+	    throw new RuntimeException(failure);
+	}
+
+	TriangleMesh mesh = meshes[taken];
+	meshes[taken] = null;
+	held -= sizes[taken];
+	taken++;
+
+	refill();
+	return mesh;
+    }
+
+    /**
+     *  stop any work in progress, and release the worker threads.
+     */
+    public synchronized void close()
+    {
+	closed = true;
+	if (pool != null) pool.shutdownNow();
+    }
+
+    /**
+     *  get the largest (estimated) number of bytes held ahead so far.
+     */
+    public synchronized long getPeak()
+    { return peak; }
+
+    /**
+     *  start tessellating more objects, while there are threads free and
+     *  memory to spare. (The next object needed is always started.)
+     */
+    private void refill()
+    {
+	while (!closed && started < objects.length && running < parallelism
+	       && (held < limit || started == taken)) {
+
+	    final int x = started++;
+	    running++;
+	    pool.execute(() -> tessellate(x));
+	}
+    }
+
+    /**
+     *  tessellate an object (on a worker thread).
+     */
+    private void tessellate(int x)
+    {
+	TriangleMesh mesh = null;
+	Throwable err = null;
+
+	try {
+	    mesh = cache.get(objects[x], tol);
+	} catch (Throwable t) {
+	    err = t;
+	}
+
+	synchronized (this) {
+	    running--;
+
+	    meshes[x] = mesh;
+	    sizes[x] = TessellationCache.estimate(mesh);
+	    ready[x] = true;
+
+	    held += sizes[x];
+	    if (held > peak) peak = held;
+
+	    if (err != null && failure == null) failure = err;
+
+	    refill();
+	    notifyAll();
+	}
+    }
+
+    private final Object3D[] objects;
+    private final TessellationCache cache;
+    private final double tol;
+    private final int parallelism;
+    private final long limit;
+
+    private ForkJoinPool pool;
+
+    /* meshes made but not yet taken, and their sizes */
+    private TriangleMesh[] meshes;
+    private long[] sizes;
+    private boolean[] ready;
+
+    private int started, taken, running;
+    private long held, peak;
+    private Throwable failure;
+    private boolean closed;
+}
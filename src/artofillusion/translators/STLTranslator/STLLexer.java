@@ -0,0 +1,538 @@
+/*
+ * STLLexer: part of the STLTranslator plugin for Art of Illusion.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See version 2 of the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * with this program. If not, the license, including version 2, is available
+ * from the GNU project, at http://www.gnu.org.
+ */
+
+package artofillusion.translators;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ *  STLLexer splits an ASCII STL file into tokens, working directly on the
+ *  bytes of the file.
+ *
+ *  The character classes are those the importer has always used:
+ *  <ul>
+ *  <li> words are runs of printable 7-bit ASCII ('!' to '~') and
+ *	ISO-8859-1 (0xA1 to 0xFF, except the soft-hyphen) characters;
+ *  <li> space, tab and non-breaking space separate words;
+ *  <li> a ';' starts a comment, which runs to the end of the line;
+ *  <li> CR, LF and CR-LF each end a line;
+ *  <li> any other character is returned as an "ordinary" token, whose type
+ *	is the character itself.
+ *  </ul>
+ *
+ *  Keywords are matched against the bytes of the current word, and numbers
+ *  are parsed from those bytes, so no String is created for either.
+ *
+ *  The bytes are taken to be in the platform's default charset (as
+ *  AsciiSTLWriter writes them, and as the importer always read them), or
+ *  as set by setCharset(). The classes above are those of the decoded
+ *  characters, and any character beyond ISO-8859-1 is a word character,
+ *  so (eg) a UTF-8 name splits into the same words as it always did, and
+ *  word() decodes it.
+ */
+
+public class STLLexer
+{
+    /** token type: a word */
+    public static final int WORD = -3;
+
+    /** token type: end of line */
+    public static final int EOL = '\n';
+
+    /** token type: end of file */
+    public static final int EOF = -1;
+
+    /** the type of the current token */
+    public int type = EOL;
+
+    /** the line number of the current token (counted from 1) */
+    public int lineno = 1;
+
+    /**
+     *  create a lexer which reads from a channel.
+     */
+    public STLLexer(ReadableByteChannel chan)
+    {
+	this.chan = chan;
+	data = new byte[BUFFER_SIZE];
+	setCharset(Charset.defaultCharset());
+    }
+
+    /**
+     *  create a lexer which reads the remaining bytes of a buffer.
+     *
+     *  A (writable) heap buffer is read in place, from its backing array,
+     *  and its position is moved to its limit at once. Any other buffer is
+     *  copied a window at a time, and its position is advanced as it is
+     *  read.
+     */
+    public STLLexer(ByteBuffer buf)
+    {
+	setCharset(Charset.defaultCharset());
+
+	if (buf.hasArray()) {
+	    data = buf.array();
+	    pos = buf.arrayOffset() + buf.position();
+	    limit = buf.arrayOffset() + buf.limit();
+	    shared = true;
+	    base = -pos;
+
+	    buf.position(buf.limit());
+	    return;
+	}
+
+	this.buf = buf;
+	data = new byte[Math.min(BUFFER_SIZE, buf.remaining() + 16)];
+    }
+
+    /**
+     *  create a lexer which reads characters from a Reader.
+     *
+     *  The characters are encoded (in UTF-8) into the buffer, and decoded
+     *  again by word().
+     */
+    public STLLexer(Reader reader)
+    {
+	this.reader = reader;
+	data = new byte[BUFFER_SIZE];
+	setCharset(StandardCharsets.UTF_8);
+    }
+
+    /**
+     *  set the charset the bytes are decoded with.
+     */
+    public void setCharset(Charset charset)
+    {
+	this.charset = charset;
+
+	if (charset.equals(StandardCharsets.ISO_8859_1)) classes = CLASS;
+	else if (charset.equals(StandardCharsets.UTF_8)) classes = UTF8_CLASS;
+	else if (charset.newEncoder().maxBytesPerChar() > 1) {
+	    // (a multi-byte character is almost always beyond ISO-8859-1)
+	    classes = CLASS.clone();
+	    Arrays.fill(classes, 0x80, 0x100, WORDCHAR);
+	}
+	else {
+	    // the class of the character each byte decodes to
+	    classes = CLASS.clone();
+	    for (int c = 0x80; c < 0x100; c++) {
+		char ch = new String(new byte[] { (byte) c }, charset).charAt(0);
+		classes[c] = (ch < 0x100 ? CLASS[ch] : WORDCHAR);
+	    }
+	}
+    }
+
+    /**
+     *  read the next token.
+     *
+     *  @return the type of the token: WORD, EOL, EOF, or (for an ordinary
+     *		character) the character itself.
+     */
+    public int next()
+	throws IOException
+    {
+	if (pushed) {
+	    pushed = false;
+	    return type;
+	}
+
+	if (type == EOL) lineno = nextLine;
+
+	for (;;) {
+	    if (pos >= limit) {
+		mark = pos;
+		if (!fill()) return type = EOF;
+	    }
+
+	    int c = data[pos] & 0xff;
+	    byte cls = classes[c];
+
+	    // U+0080 to U+00BF, in UTF-8: the class is that of the second byte
+	    if (cls == UTF8_C2) {
+		mark = pos;
+		cls = second();
+		if (cls != WORDCHAR) c = data[++pos] & 0xff;
+	    }
+
+	    switch (cls) {
+	    case SPACE:
+		pos++;
+		continue;
+
+	    case COMMENT:
+		// skip to (but not past) the end of the line
+		for (;;) {
+		    if (pos >= limit) {
+			mark = pos;
+			if (!fill()) return type = EOF;
+		    }
+
+		    c = data[pos];
+		    if (c == '\n' || c == '\r') break;
+		    pos++;
+		}
+		continue;
+
+	    case NEWLINE:
+		pos++;
+
+		// a CR-LF pair is a single line end
+		if (c == '\r') {
+		    if (pos >= limit) {
+			mark = pos;
+			fill();
+		    }
+		    if (pos < limit && data[pos] == '\n') pos++;
+		}
+
+		nextLine = lineno + 1;
+		return type = EOL;
+
+	    case WORDCHAR:
+		start = pos++;
+		for (;;) {
+		    if (pos >= limit) {
+			mark = start;
+			if (!fill()) break;
+		    }
+
+		    byte cls2 = classes[data[pos] & 0xff];
+		    if (cls2 == UTF8_C2) {
+			mark = start;
+			cls2 = second();
+		    }
+
+		    if (cls2 != WORDCHAR) break;
+		    pos++;
+		}
+
+		end = pos;
+		return type = WORD;
+
+	    default:
+		pos++;
+		return type = c;
+	    }
+	}
+    }
+
+    /**
+     *  set the line number of the next token (eg for a lexer which starts
+     *  part way through a file).
+     */
+    public void setLine(int line)
+    { lineno = nextLine = line; }
+
+    /**
+     *  get the number of bytes read before the current position (for a
+     *  Reader, the length of its characters in UTF-8).
+     */
+    public long offset()
+    { return base + pos; }
+
+    /**
+     *  cause the next call to next() to return the current token again.
+     */
+    public void pushBack()
+    { pushed = true; }
+
+    /**
+     *  is the current token the word <i>keyword</i>?
+     *
+     *  @param keyword the keyword, as (ASCII) bytes
+     */
+    public boolean is(byte[] keyword)
+    {
+	if (type != WORD || end - start != keyword.length) return false;
+
+	for (int x = 0; x < keyword.length; x++)
+	    if (data[start+x] != keyword[x]) return false;
+
+	return true;
+    }
+
+    /**
+     *  get the current word as a String
+     */
+    public String word()
+    {
+	if (type != WORD) return null;
+	return new String(data, start, end - start, charset);
+    }
+
+    /**
+     *  parse the current word as a number.
+     *
+     *  @throws NumberFormatException if the word is not a number
+     */
+    public double number()
+    { return parseDouble(data, start, end - start, charset); }
+
+    /**
+     *  parse a decimal number from <i>len</i> bytes starting at
+     *  <i>off</i>.
+     *
+     *  The result is exactly that of Double.parseDouble(). Numbers with
+     *  no more than 2^53 in their mantissa and a decimal exponent within
+     *  +/-22 (which covers almost every number written to an STL file)
+     *  are converted directly, since both the mantissa and the power of
+     *  ten are exact doubles, and so the product or quotient is correctly
+     *  rounded. Anything else is passed on to Double.parseDouble().
+     */
+    public static double parseDouble(byte[] b, int off, int len)
+    { return parseDouble(b, off, len, Charset.defaultCharset()); }
+
+    /**
+     *  parse a decimal number from <i>len</i> bytes starting at
+     *  <i>off</i>, which (if they are not ASCII) are decoded with
+     *  <i>charset</i> for Double.parseDouble().
+     */
+    public static double parseDouble(byte[] b, int off, int len,
+				     Charset charset)
+    {
+	int pos = off, max = off + len;
+	boolean neg = false;
+
+	if (pos < max && (b[pos] == '-' || b[pos] == '+')) {
+	    neg = (b[pos] == '-');
+	    pos++;
+	}
+
+	long mant = 0;
+	int digits = 0, exp = 0, c;
+	boolean any = false;
+
+	// integer part
+	while (pos < max && (c = b[pos] - '0') >= 0 && c <= 9) {
+	    if (mant != 0 || c != 0) digits++;
+	    if (digits > 18) return slowParse(b, off, len, charset);
+	    mant = mant*10 + c;
+	    any = true;
+	    pos++;
+	}
+
+	// fraction
+	if (pos < max && b[pos] == '.') {
+	    pos++;
+	    while (pos < max && (c = b[pos] - '0') >= 0 && c <= 9) {
+		if (mant != 0 || c != 0) digits++;
+		if (digits > 18) return slowParse(b, off, len, charset);
+		mant = mant*10 + c;
+		exp--;
+		any = true;
+		pos++;
+	    }
+	}
+
+	if (!any) return slowParse(b, off, len, charset);
+
+	// exponent
+	if (pos < max && (b[pos] == 'e' || b[pos] == 'E')) {
+	    pos++;
+	    boolean eneg = false;
+	    if (pos < max && (b[pos] == '-' || b[pos] == '+')) {
+		eneg = (b[pos] == '-');
+		pos++;
+	    }
+
+	    int e = 0;
+	    boolean edigit = false;
+	    while (pos < max && (c = b[pos] - '0') >= 0 && c <= 9) {
+		if (e < 10000) e = e*10 + c;
+		edigit = true;
+		pos++;
+	    }
+
+	    if (!edigit) return slowParse(b, off, len, charset);
+	    exp += (eneg ? -e : e);
+	}
+
+	// trailing characters (eg a 'f' suffix) are left to the slow path
+	if (pos != max) return slowParse(b, off, len, charset);
+
+	double val;
+	if (mant == 0) val = 0.0;
+	else if (mant > (1L << 53) || exp < -22 || exp > 22)
+	    return slowParse(b, off, len, charset);
+	else if (exp < 0) val = (double) mant / POW10[-exp];
+	else val = (double) mant * POW10[exp];
+
+	return (neg ? -val : val);
+    }
+
+    /**
+     *  parse a number through Double.parseDouble()
+     */
+    private static double slowParse(byte[] b, int off, int len,
+				    Charset charset)
+    { return Double.parseDouble(new String(b, off, len, charset)); }
+
+    /**
+     *  get the class of the (UTF-8) character at <i>pos</i>, whose first
+     *  byte is 0xC2, reading its second byte if need be (keeping
+     *  everything from <i>mark</i>).
+     */
+    private byte second()
+	throws IOException
+    {
+	if (pos + 1 >= limit) fill();
+
+	// (a broken sequence decodes as U+FFFD, a word character)
+	if (pos + 1 >= limit) return WORDCHAR;
+
+	int c = data[pos+1] & 0xff;
+	return (c >= 0x80 && c < 0xC0 ? CLASS[c] : WORDCHAR);
+    }
+
+    /**
+     *  read more bytes into the buffer, keeping everything from
+     *  <i>mark</i> onwards.
+     *
+     *  @return false if there are no more bytes
+     */
+    private boolean fill()
+	throws IOException
+    {
+	// the bytes of a shared array are all there is
+	if (shared) return false;
+
+	// discard everything before the mark
+	if (mark > 0) {
+	    System.arraycopy(data, mark, data, 0, limit - mark);
+	    pos -= mark;
+	    start -= mark;
+	    limit -= mark;
+	    base += mark;
+	    mark = 0;
+	}
+
+	if (limit == data.length) data = Arrays.copyOf(data, data.length * 2);
+
+	int count = -1;
+	if (buf != null) {
+	    count = Math.min(buf.remaining(), data.length - limit);
+	    buf.get(data, limit, count);
+
+	    if (count == 0) count = -1;
+	}
+	else if (chan != null) {
+	    ByteBuffer wrap = ByteBuffer.wrap(data, limit, data.length - limit);
+	    do {
+		count = chan.read(wrap);
+	    } while (count == 0);
+	}
+	else if (reader != null) {
+	    if (chars == null) chars = new char[BUFFER_SIZE/4];
+
+	    // (at most 3 bytes a char)
+	    if (data.length - limit < chars.length*3)
+		data = Arrays.copyOf(data, limit + chars.length*3);
+
+	    while (count <= 0) {
+		int n = reader.read(chars, held, chars.length - held);
+
+		if (n >= 0) {
+		    n += held;
+		    held = 0;
+
+		    // keep the first of a surrogate pair until the second is read
+		    if (Character.isHighSurrogate(chars[n-1])) {
+			held = 1;
+			n--;
+		    }
+		}
+		else if (held > 0) {
+		    n = held;
+		    held = 0;
+		}
+		else break;
+
+		byte[] bytes = new String(chars, 0, n)
+		    .getBytes(StandardCharsets.UTF_8);
+		System.arraycopy(bytes, 0, data, limit, bytes.length);
+		count = bytes.length;
+
+		if (held > 0) chars[0] = chars[n];
+	    }
+	}
+
+	if (count <= 0) return false;
+
+	limit += count;
+	return true;
+    }
+
+    private static final int BUFFER_SIZE = 1024*64;
+
+    /* character classes */
+    private static final byte ORDINARY = 0, WORDCHAR = 1, SPACE = 2,
+	NEWLINE = 3, COMMENT = 4;
+
+    /* the lead byte of U+0080 to U+00BF in UTF-8, whose class is that of
+       the second byte */
+    private static final byte UTF8_C2 = 5;
+
+    private static final byte[] CLASS = new byte[256];
+    static {
+	for (int c = '!'; c <= '~'; c++) CLASS[c] = WORDCHAR;
+	for (int c = 0xA1; c <= 0xFF; c++) CLASS[c] = WORDCHAR;
+
+	CLASS[0xAD] = ORDINARY;		// soft-hyphen
+	CLASS[';'] = COMMENT;
+
+	CLASS[' '] = SPACE;
+	CLASS['\t'] = SPACE;
+	CLASS[0xA0] = SPACE;		// non-breaking space
+
+	CLASS['\n'] = NEWLINE;
+	CLASS['\r'] = NEWLINE;
+    }
+
+    /* the classes of UTF-8 bytes: every character from U+00C0 on is a
+       word character */
+    private static final byte[] UTF8_CLASS = CLASS.clone();
+    static {
+	Arrays.fill(UTF8_CLASS, 0x80, 0x100, WORDCHAR);
+	UTF8_CLASS[0xC2] = UTF8_C2;
+    }
+
+    private static final double[] POW10 = new double[23];
+    static {
+	POW10[0] = 1.0;
+	for (int x = 1; x < POW10.length; x++) POW10[x] = POW10[x-1] * 10.0;
+    }
+
+    private ReadableByteChannel chan;
+    private ByteBuffer buf;
+    private Reader reader;
+    private char[] chars;
+    private int held;
+
+    private Charset charset;
+    private byte[] classes;
+
+    private byte[] data;
+    private int pos, limit, mark, start, end;
+    private long base;
+    private int nextLine = 1;
+    private boolean pushed, shared;
+}
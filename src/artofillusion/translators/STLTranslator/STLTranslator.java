@@ -36,8 +36,25 @@ import artofillusion.animation.*;
 import buoy.event.*;
 import buoy.widget.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 
 import javax.swing.Timer;
@@ -55,10 +72,39 @@ public class STLTranslator implements Plugin, Translator
     public static final int EXPORT = 0;
     public static final int IMPORT = 1;
 
+    /* levels of validation on import */
+    public static final int VALIDATE_NONE = 0;
+    public static final int VALIDATE_SAMPLED = 1;
+    public static final int VALIDATE_FULL = 2;
+
     /* public so external code (eg scripts) can have access */
     public double surfError = 0.05;
     public boolean ignoreError=false, centered=false, frame=true;
 
+    /* maximum significant digits in ASCII export (0 for round-trip) */
+    public int decimal = 0;
+
+    /* checks made on import: none; the normals of a fraction
+       (sampleFraction) of the facets; or the normal of every facet, and
+       the finished mesh */
+    public int validation = VALIDATE_FULL;
+    public double sampleFraction = 0.01;
+
+    /* number of threads used to import large files */
+    public int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /* level (0-9) of compressed export (-1 for the zlib default) */
+    public int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    /* bytes of meshes tessellated ahead of the export writer */
+    public long pipelineLimit = Runtime.getRuntime().maxMemory() / 8;
+
+    /* tessellated objects, shared by the phases of (repeated) exports of
+       a scene */
+    public TessellationCache tessellations =
+	new TessellationCache(Math.min(Runtime.getRuntime().maxMemory() / 16,
+				       1024L*1024*256));
+
     protected Object ed;
 
     protected BFrame parent;
@@ -70,13 +116,24 @@ public class STLTranslator implements Plugin, Translator
     protected boolean errs[];
     protected int action, faces=0, rendermode;
 
+    /* formats the numbers, and holds the text of a line, in ASCII export */
+    protected FloatFormat format;
+    protected char[] line = new char[128];
+
     protected Thread thread;
+
+    /* validates the objects to export, while the export dialog is open */
+    protected Thread validator;
     protected OutputStream out;
     protected InputStream in;
 
     protected CharArrayWriter message;
     protected Exception error;
 
+    /* the problems found in the facets of each object imported */
+    protected ArrayList<FacetDiagnostics> diagnostics =
+	new ArrayList<FacetDiagnostics>();
+
     /* internal machinations of the GUI - protected */
     protected BDialog dlg;
     protected BTextField pathField = new BTextField("Untitled", 15);
@@ -89,6 +146,12 @@ public class STLTranslator implements Plugin, Translator
 	BCheckBox(Translate.text("center"), false);
     protected BCheckBox frameBox = new
 	BCheckBox(Translate.text("frame"), true);
+    protected BComboBox validationChoice = new BComboBox(new String[] {
+	Translate.text("none"),
+	Translate.text("sampled"),
+	Translate.text("full")
+    });
+
     protected BCheckBox ignoreBox = new
 	BCheckBox(Translate.text("ignoreErrors"), false);
     
@@ -117,11 +180,9 @@ public class STLTranslator implements Plugin, Translator
     protected BComboBox meshChoice = new BComboBox();
 
     /* internal logic - private */
-    private static final int WORD = StreamTokenizer.TT_WORD;
-    private static final int NUM = StreamTokenizer.TT_NUMBER;
-    private static final int EOL = StreamTokenizer.TT_EOL;
-    private static final int CR = '\r';
-    private static final int EOF = StreamTokenizer.TT_EOF;
+    private static final int WORD = STLLexer.WORD;
+    private static final int EOL = STLLexer.EOL;
+    private static final int EOF = STLLexer.EOF;
 
     private static final int ASCII	= 0;
     private static final int BINARY	= 1;
@@ -130,6 +191,26 @@ public class STLTranslator implements Plugin, Translator
     
     private static final String QUOTES = "\"'";
 
+    /* binary file layout */
+    private static final int HEADER_SIZE = 84;
+    private static final int FACET_SIZE = 50;
+
+    /* number of facets mapped at a time by importMapped() */
+    private static final int MAP_FACETS = 1024*1024*16;
+
+    /* smallest number of facets decoded by each parallel task */
+    private static final int CHUNK_FACETS = 1024*64;
+
+    /* largest number of facets a stream's buffers are sized for, when the
+       count in its header cannot be checked against its size */
+    private static final int STREAM_FACETS = 1024*1024;
+
+    /* smallest number of bytes parsed by each parallel (ASCII) task */
+    private static final int ASCII_CHUNK = 1024*1024*16;
+
+    /* largest number of bytes parsed by each parallel (ASCII) task */
+    private static final int MAP_BYTES = 1024*1024*512;
+
     private static final String yesno[] = new String [] {
 	Translate.text("Yes"), Translate.text("No")
     };
@@ -195,6 +276,12 @@ public class STLTranslator implements Plugin, Translator
 	    theScene = null;
 
 	    break;
+
+	case Plugin.SCENE_WINDOW_CLOSING:
+	    // don't keep the tessellations of a closed scene
+	    if (((LayoutWindow) args[0]).getScene() == tessellations.getScene())
+		tessellations.setScene(null);
+	    break;
 	}
     }
 
@@ -252,6 +339,9 @@ public class STLTranslator implements Plugin, Translator
 	parent = frame;
 	theScene = scene;
 
+	// (clears the cache if the last export was of another scene)
+	tessellations.setScene(scene);
+
 	if (theScene.getNumObjects() == 0) {
 	    new BStandardDialog("", new String [] {
 		Translate.text("errorExportingScene"),
@@ -280,34 +370,7 @@ public class STLTranslator implements Plugin, Translator
 	if (message == null) message = new CharArrayWriter(1024*16);
 	else message.reset();
 
-	ObjectInfo info = null;
-	TriangleMesh mesh = null;
-
-	int error = 0;
-
-	// validate the mesh(es) before we start
-	int max = theList.size();
-	errs = new boolean[max];
-	for (int x = 0; x < max; x++) {
-	    info = (ObjectInfo) theList.get(x);
-	    mesh = info.object.convertToTriangleMesh(surfError);
-
-	    if (mesh == null) continue;
-
-	    try {
-		message.write("\n" + info.name + ": ");
-		if (!validate(mesh, message)) {
-		    error++;
-		    errs[x] = true;
-		}
-		else {
-		    message.write(Translate.text("ok"));
-		    errs[x] = false;
-		}
-	    } catch (IOException e) {}
-	}
-
-	if (error == 0) message.reset();
+	errs = new boolean[theList.size()];
 
 	/*
 	 *  NTJ: consolidate error handling into GUI
@@ -322,9 +385,19 @@ public class STLTranslator implements Plugin, Translator
 	}
 	*/
 
+	// the objects are validated (in the background) while the dialog
+	// is open
 	runTask(EXPORT);
     }
 
+    /**
+     *  get the problems found in the facets of each object (in order)
+     *  by the last import. The messages of the import summarize them;
+     *  FacetDiagnostics.detail() gives the normals of the first few.
+     */
+    public List<FacetDiagnostics> getDiagnostics()
+    { return diagnostics; }
+
     /**
      *  attempt to import from the specified file
      */
@@ -340,15 +413,26 @@ public class STLTranslator implements Plugin, Translator
 	}
 	else compressed = false;
 
-	InputStream in = new FileInputStream(f);
-	if (compressed) in = new GZIPInputStream(in);
-
 	Scene scene = createScene();
 
-	if (type == BINARY)
-	    importStream(scene, in);
-	else
-	    importStream(scene, new InputStreamReader(in));
+	// uncompressed files are read directly from a mapping
+	if (type == BINARY && !compressed)
+	    return importMapped(scene, f);
+	else if (!compressed)
+	    return importAsciiMapped(scene, f);
+
+	// (the uncompressed size of a compressed file is unknown)
+	InputStream in = new GZIPInputStream(new FileInputStream(f));
+
+	try {
+	    if (type == BINARY)
+		importStream(scene, new BufferedInputStream(in));
+	    else
+		importAscii(scene, in, 0);
+	}
+	finally {
+	    in.close();
+	}
 
 	return scene;
     } 
@@ -366,53 +450,48 @@ public class STLTranslator implements Plugin, Translator
 
 	ObjectInfo info = null;
 	TriangleMesh mesh = null;
-	MeshVertex vert[] = null;
-	TriangleMesh.Face face[] = null;
-	Mat4 trans = null;
-	Vec3 v;
-	double length;
+	WorldMesh world = new WorldMesh();
+	MeshPipeline pipe = pipeline(list);
 
-	// Write the objects in the scene.
-	int max = list.size();
-	for (int x = 0; x < max; x++) {
-	    info = (ObjectInfo) list.get(x);
-	    mesh = info.object.convertToTriangleMesh(surfError);
-
-	    if (mesh == null) continue;
-
-            // Write the header information.
-            out.print("solid ");
-            out.print(info.name);
-            out.print("; Produced by Art of Illusion ");
-            out.print(ArtOfIllusion.getVersion());
-            out.print(", ");
-            out.print(new Date().toString());
-
-	    vert = mesh.getVertices();
-	    face = mesh.getFaces();
-
-            info.coords.transformOrigin(move);
-	    trans = info.coords.fromLocal();
-
-	    // print all faces to file
-	    for (int i = 0; i < face.length; i++) {
-		v = vert[face[i].v2].r.minus(vert[face[i].v1].r)
-		    .cross(vert[face[i].v3].r.minus(vert[face[i].v1].r));
-
-                v.normalize();
-
-		//System.out.println("STL; norm before trans=" + v);
-		v = info.coords.fromLocal().timesDirection(v);
-		
-		writeVec(out, "\nfacet normal ", v, null);
-		out.print("\n  outer loop");
-		writeVec(out, "\n    vertex ", vert[face[i].v1].r, trans);
-		writeVec(out, "\n    vertex ", vert[face[i].v2].r, trans);
-		writeVec(out, "\n    vertex ", vert[face[i].v3].r, trans);
-		
-		out.print("\n  endloop\nendfacet");
+	if (format == null || format.getDigits() != Math.max(decimal, 0))
+	    format = new FloatFormat(decimal);
+
+	// each facet is formatted as bytes, then written as chars
+	byte[] bytes = new byte[AsciiSTLWriter.FACET_LENGTH];
+	if (line.length < bytes.length) line = new char[bytes.length];
+
+	try {
+	    // Write the objects in the scene.
+	    int max = list.size();
+	    for (int x = 0; x < max; x++) {
+		info = (ObjectInfo) list.get(x);
+		mesh = pipe.next();
+
+		if (mesh == null) continue;
+
+		// Write the header information.
+		out.print("solid ");
+		out.print(info.name);
+		out.print("; Produced by Art of Illusion ");
+		out.print(ArtOfIllusion.getVersion());
+		out.print(", ");
+		out.print(new Date().toString());
+
+		world.set(mesh, worldTransform(info));
+
+		// print all faces to file
+		char[] chars = line;
+		for (int i = 0, count = world.getFaceCount(); i < count; i++) {
+		    int len = AsciiSTLWriter.facet(format, bytes, 0, world, i);
+		    for (int j = 0; j < len; j++) chars[j] = (char) bytes[j];
+
+		    out.write(chars, 0, len);
+		}
+		out.println("\nendsolid " + info.name);
 	    }
-            out.println("\nendsolid " + info.name);
+	}
+	finally {
+	    pipe.close();
 	}
 
 	out.flush();
@@ -420,69 +499,254 @@ public class STLTranslator implements Plugin, Translator
 	System.out.println("stream complete");
     }
 
+    /**
+     *  export the Scene (in ASCII STL) to the specified stream.
+     *
+     *  The output is exactly that of exportStream(List, PrintWriter)
+     *  given a PrintWriter on the same stream, but the text is formatted
+     *  on <i>parallelism</i> threads (see AsciiSTLWriter).
+     */
+    public void exportAscii(List list, OutputStream os)
+	throws IOException, InterruptedException
+    {
+	// a file can be written through its own channel
+	if (os instanceof FileOutputStream)
+	    exportAscii(list, ((FileOutputStream) os).getChannel());
+	else
+	    exportAscii(list, Channels.newChannel(os));
+    }
+
+    /**
+     *  export the Scene (in ASCII STL) to the specified channel.
+     */
+    public void exportAscii(List list, WritableByteChannel chan)
+	throws IOException, InterruptedException
+    {
+	System.out.println("export to stream");
+
+	// find the bounds, and set the transform
+	findBounds(list);
+
+	AsciiSTLWriter out = new AsciiSTLWriter(chan, decimal, parallelism);
+	MeshPipeline pipe = pipeline(list);
+
+	ObjectInfo info = null;
+	TriangleMesh mesh = null;
+	WorldMesh world;
+
+	try {
+	    // Write the objects in the scene.
+	    int max = list.size();
+	    for (int x = 0; x < max; x++) {
+		info = (ObjectInfo) list.get(x);
+		mesh = pipe.next();
+
+		if (mesh == null) continue;
+
+		// Write the header information.
+		out.writeText("solid " + info.name
+			      + "; Produced by Art of Illusion "
+			      + ArtOfIllusion.getVersion() + ", "
+			      + new Date().toString());
+
+		// the writer reads each mesh in the background
+		world = new WorldMesh();
+		world.set(mesh, worldTransform(info));
+
+		out.writeMesh(world);
+
+		out.writeText("\nendsolid " + info.name + System.lineSeparator());
+	    }
+	}
+	finally {
+	    pipe.close();
+	    out.close();
+	}
+
+	System.out.println("stream complete");
+    }
+
     /**
      *  export the Scene (in BINARY STL) to the specified stream.
      */
     public void exportStream(List list, OutputStream os)
 	throws IOException, InterruptedException
+    {
+	// a file can be written through its own channel
+	if (os instanceof FileOutputStream)
+	    exportStream(list, ((FileOutputStream) os).getChannel());
+	else
+	    exportStream(list, Channels.newChannel(os));
+    }
+
+    /**
+     *  export the Scene (in BINARY STL) to the specified channel.
+     *
+     *  Facets are packed into a large buffer (see BinarySTLWriter), which
+     *  is written to the channel as it fills.
+     *
+     *  The header holds the number of facets. If the channel is seekable
+     *  (eg a FileChannel, not in append mode), the count is patched into
+     *  the header once the facets are written. Otherwise, the objects
+     *  must first be tessellated (or taken from the cache) to count them.
+     */
+    public void exportStream(List list, WritableByteChannel chan)
+	throws IOException, InterruptedException
     {
 	System.out.println("export to stream");
 
 	// find the bounds, and set the transform
 	findBounds(list);
 
+	// the header holds the number of faces: patch it in at the end if
+	// possible, otherwise count them first
+	SeekableByteChannel seek = (chan instanceof SeekableByteChannel
+				    ? (SeekableByteChannel) chan : null);
+	long start = (seek != null ? seek.position() : 0);
+	faces = (seek != null ? 0 : countFaces(list));
+
 	// binary STL is always little-endian
-	DataOutput out = new LittleEndianDataOutputStream(os);
+	BinarySTLWriter out = new BinarySTLWriter(chan);
 
 	ObjectInfo info = null;
 	TriangleMesh mesh = null;
-	MeshVertex vert[] = null;
-	TriangleMesh.Face face[] = null;
-	Vec3 v;
-	Mat4 trans = null;
-	double length;
+	WorldMesh world = new WorldMesh();
 	String hdr = null;
 
-	for (int x = list.size()-1; x >= 0; x--) {
-	    info = (ObjectInfo) list.get(x);
-	    mesh = info.object.convertToTriangleMesh(surfError);
+	// the objects are written last to first
+	List order = new ArrayList(list);
+	Collections.reverse(order);
+
+	MeshPipeline pipe = pipeline(order);
+	try {
+	    for (int x = 0; x < order.size(); x++) {
+		info = (ObjectInfo) order.get(x);
+		mesh = pipe.next();
+
+		if (mesh == null) continue;
 
-	    if (mesh == null) continue;
+		if (hdr == null) {
+		    // generate 80 bytes of header text
+		    hdr = "\"" + Util.translate(info.name, " ", "_") +
+			"\"; Produced by Art of Illusion " + ArtOfIllusion.getVersion() +
+			", " + new Date().toString() +
+		    "                                                            ";
 
-	    if (hdr == null) {
-		// generate 80 bytes of header text
-		hdr = "\"" + Util.translate(info.name, " ", "_") +
-		    "\"; Produced by Art of Illusion " + ArtOfIllusion.getVersion() +
-		    ", " + new Date().toString() +
-		"                                                            ";
+		    out.writeHeader(hdr.substring(0, 80), faces);
+		}
 
-		out.writeBytes(hdr.substring(0, 80));
-		out.writeInt(faces);
+		world.set(mesh, worldTransform(info));
+		out.writeMesh(world);
 	    }
+	}
+	finally {
+	    pipe.close();
+	}
+
+	if (seek != null && hdr != null) {
+	    out.patchFacetCount(seek, start);
+	    faces = (int) out.getFacetCount();
+	}
+	else out.flush();
+
+	System.out.println("stream complete");
+    }
+
+    /**
+     *  export the Scene (in ASCII or BINARY STL) to a new buffer.
+     *
+     *  @param type ASCII or BINARY
+     *  @return a (heap) buffer holding the file from index 0, positioned
+     *		after its last byte
+     */
+    public ByteBuffer exportBuffer(List list, int type)
+	throws IOException, InterruptedException
+    { return exportBuffer(list, type, null); }
+
+    /**
+     *  export the Scene (in ASCII or BINARY STL) into a buffer.
+     *
+     *  The file is written from the buffer's position. If the buffer is
+     *  null, a new buffer is created (and grown as needed); otherwise, the
+     *  file is written into the buffer given, and a
+     *  BufferOverflowException is thrown if it does not fit.
+     *
+     *  @param type ASCII or BINARY
+     *  @return the buffer, positioned after the last byte of the file
+     */
+    public ByteBuffer exportBuffer(List list, int type, ByteBuffer buf)
+	throws IOException, InterruptedException
+    {
+	ByteBufferChannel chan = (buf == null ? new ByteBufferChannel(1024*1024)
+				  : new ByteBufferChannel(buf, false));
+
+	if (type == BINARY) exportStream(list, (WritableByteChannel) chan);
+	else exportAscii(list, chan);
+
+	return chan.getBuffer();
+    }
+
+    /**
+     *  export the Scene (in BINARY STL) to a file, through a mapping.
+     *
+     *  Each object is written as it is taken from the pipeline, after the
+     *  facets of the objects before it: the file grows as it is written,
+     *  and its facets are written to their places in the mapping on
+     *  <i>parallelism</i> threads (see MappedSTLWriter).
+     *
+     *  The file holds exactly the bytes written by exportStream().
+     */
+    public void exportMapped(List list, File file)
+	throws IOException, InterruptedException
+    {
+	System.out.println("export to mapped file");
+
+	// find the bounds, and set the transform
+	findBounds(list);
 
-	    vert = mesh.getVertices();
-	    face = mesh.getFaces();
+	// the objects are written last to first
+	List order = new ArrayList(list);
+	Collections.reverse(order);
 
-            info.coords.transformOrigin(move);
-	    trans = info.coords.fromLocal();
+	try (FileChannel chan = FileChannel.open(file.toPath(),
+						 StandardOpenOption.READ,
+						 StandardOpenOption.WRITE,
+						 StandardOpenOption.CREATE,
+						 StandardOpenOption.TRUNCATE_EXISTING)) {
 
-	    // print all faces to file
-	    for (int i = 0; i < face.length; i++) {
-		v = vert[face[i].v2].r.minus(vert[face[i].v1].r).cross(vert[face[i].v3].r.minus(vert[face[i].v1].r));
+	    MappedSTLWriter out = new MappedSTLWriter(chan, parallelism);
 
-                v.normalize();
+	    int max = order.size();
+	    String hdr = null;
 
-		//System.out.println("STL; norm before trans=" + v);
-		v = info.coords.fromLocal().timesDirection(v);
+	    MeshPipeline pipe = pipeline(order);
+	    try {
+		for (int x = 0; x < max; x++) {
+		    ObjectInfo info = (ObjectInfo) order.get(x);
+		    TriangleMesh mesh = pipe.next();
+
+		    if (mesh == null) continue;
 
-		writeVec(out, v, null);
-		writeVec(out, vert[face[i].v1].r, trans);
-		writeVec(out, vert[face[i].v2].r, trans);
-		writeVec(out, vert[face[i].v3].r, trans);
+		    if (hdr == null) {
+			// generate 80 bytes of header text
+			hdr = "\"" + Util.translate(info.name, " ", "_") +
+			    "\"; Produced by Art of Illusion " + ArtOfIllusion.getVersion() +
+			    ", " + new Date().toString() +
+			"                                                            ";
+
+			out.writeHeader(hdr.substring(0, 80));
+		    }
 
-		// two byte padding (ho-hum...)
-		out.writeBytes("  ");
+		    out.writeMesh(mesh, worldTransform(info));
+		}
+	    }
+	    finally {
+		pipe.close();
+		out.close();
 	    }
+
+	    // (an export with no objects writes nothing)
+	    faces = (int) out.getFacetCount();
 	}
 
 	System.out.println("stream complete");
@@ -493,231 +757,291 @@ public class STLTranslator implements Plugin, Translator
      */
     public Scene importStream(Scene scene, Reader in)
 	throws IOException
+    { return importStream(scene, in, 0); }
+
+    /**
+     *  Import a new Scene object from an (ASCII STL) stream.
+     *
+     *  @param size the size (in bytes) of the stream, if known, which is
+     *		used to size the import buffers. (Zero if not known.)
+     */
+    public Scene importStream(Scene scene, Reader in, long size)
+	throws IOException
+    { return importAscii(scene, new STLLexer(in), size); }
+
+    /**
+     *  Import a new Scene object from an (ASCII STL) byte stream.
+     *
+     *  The bytes are tokenized directly, without first decoding them to
+     *  characters.
+     *
+     *  @param size the size (in bytes) of the stream, if known, which is
+     *		used to size the import buffers. (Zero if not known.)
+     */
+    public Scene importAscii(Scene scene, InputStream in, long size)
+	throws IOException
+    { return importAscii(scene, new STLLexer(Channels.newChannel(in)), size); }
+
+    /**
+     *  Import a new Scene object from the tokens of an ASCII STL file.
+     */
+    protected Scene importAscii(Scene scene, STLLexer token, long size)
+	throws IOException
     {
-	ObjectInfo info = null;
-	CoordinateSystem coords;
+	scene = beginImport(scene);
 
-	int x, vertno=0, face[], faceArray[][] = new int[0][0];
-	String s, name;
-	Vec3 centre, vert, norm, calcNorm, vertArray[], v1, v2, v3;
-	Integer index;
-	ArrayList vlist = new ArrayList(1024*128);
-	ArrayList flist = new ArrayList(1024*64);
-	HashMap vmap = new HashMap(1024*128);
+	AsciiAssembler assembler = new AsciiAssembler(scene);
+	AsciiChunk chunk = new AsciiChunk(token, size);
+	chunk.checkFraction = checkFraction();
 
-	name = null;
-	norm = new Vec3();
-	vert = new Vec3();
-	vertArray = new Vec3[0];
-	faceArray = new int[0][0];
-	face = new int[3];
-	BoundingBox bounds = new BoundingBox(vert, vert);
+	try {
+	    // each part is assembled as soon as it is parsed
+	    chunk.parse(assembler);
 
-	// ensure we have a scene to import into
-	if (scene == null) {
-	    scene = createScene();
+	    if (chunk.error != null) {
+		assembler.lineno = chunk.errorLine;
+		throw chunk.error;
+	    }
 
-	    // only copy to theScene if we created the scene
-	    theScene = scene;
+	    assembler.finish();
+	}
+	catch (Exception e) {
+	    new BStandardDialog("", new String [] {
+		Translate.text("errorLoadingFile"),
+		"(at line " + assembler.lineno + ")\n" + e.toString()
+	    }, BStandardDialog.ERROR).showMessageDialog(parent);
+	    return null;
+	}
+	finally {
+	    assembler.close();
 	}
 
-	rendermode = ArtOfIllusion.getPreferences().getDefaultDisplayMode();
+	return scene;
+    }
 
-	if (message == null) message = new CharArrayWriter(1024*16);
-	else message.reset();
+    /**
+     *  Import a new Scene object from an (uncompressed) ASCII STL file.
+     *
+     *  Large files are mapped, and split at "facet" lines into chunks
+     *  which are parsed in parallel on a ForkJoinPool of
+     *  <i>parallelism</i> threads. A first parallel pass counts the lines
+     *  in each chunk, so that every chunk reports the same line numbers as
+     *  a sequential parse. The parsed parts are then assembled in file
+     *  order, so the objects (one per solid), their vertex order and the
+     *  messages are the same as for a sequential parse.
+     *
+     *  Smaller files are parsed sequentially, directly from the file.
+     */
+    public Scene importAsciiMapped(Scene scene, File file)
+	throws IOException
+    {
+	try (FileChannel chan = FileChannel.open(file.toPath(),
+						 StandardOpenOption.READ)) {
 
-	int lineno = 1;
+	    long size = chan.size();
+	    if (parallelism <= 1 || size < ASCII_CHUNK*2L)
+		return importAscii(scene, new STLLexer(chan), size);
 
-	try {
-	    StreamTokenizer token = new StreamTokenizer(in);
+	    scene = beginImport(scene);
 
-	    // set up the tokenizer
-	    token.resetSyntax();
-	    token.eolIsSignificant(true);
+	    AsciiAssembler assembler = new AsciiAssembler(scene);
+	    ArrayList<AsciiChunk> chunks = new ArrayList<AsciiChunk>();
 
-	    token.wordChars('!', '~'); //Classic 7-bit ASCII printable range, not including space
-	    token.wordChars(0x00A1, 0x00FF); // ISO-8259-1 extended ASCII/US-ASCII...
-            token.ordinaryChar(0x00AD); //Except soft-hyphen (for dynamically-broken lines)
-            token.commentChar(';'); //From semicolon to EOL, comment metadata is ignored.
+	    try {
+		// split the file at facet lines
+		long len = Math.max(size / (parallelism*4), ASCII_CHUNK);
+		len = Math.min(len, MAP_BYTES);
 
-	    token.whitespaceChars(' ', ' '); //space
-            token.whitespaceChars(0x00A0, 0x00A0); //non-breaking space
-	    token.whitespaceChars('\t', '\t');
+		long start = 0;
+		while (start < size) {
+		    long end = (size - start > len
+				? AsciiChunk.nextFacet(chan, start + len, size)
+				: size);
 
-	    int count = 0;
-	    boolean more = true;
-	    while (more) {
-
-		// process the next token
-		switch(token.nextToken()) {
-		case WORD:
-		    // keyword
-		    s = token.sval;
-
-		    //System.out.println("STL: token=" + s);
-
-		    if (s.equals("solid")) {
-			if (count > 0 && info == null)
-			    throw new Ex("unmatched \"solid\" keyword ");
-
-			info = null;
-			vlist.clear();
-			flist.clear();
-			vmap.clear();
-
-                        if (token.nextToken() == WORD) {
-                          s = token.sval;
-                          if (s != "facet") {
-                            if (QUOTES.indexOf(s.charAt(0)) >= 0
-                                && s.charAt(s.length()-1) == s.charAt(0)) {
-                                name = s.substring(1, s.length()-1);
-                                } else {
-                                  name = s;
-                                  while (token.nextToken() != EOL) // read name till
-                                    name = name + " " + token.sval; // EOL, including spaces
-                                }
-                            }
-                        } else name = "Object-" + count;
-
-			System.out.println("STL: name=" + name);
-
-			while (token.ttype != EOL && token.nextToken() != CR) {
-			    if (token.ttype == EOF) more = false;
-			    //System.out.print(".");
-			}
+		    // a mapping is limited to 2GB
+		    if (end - start > Integer.MAX_VALUE)
+			throw new Ex("no facet found after offset " + start);
 
-			//System.out.println();
-		    }
+		    AsciiChunk chunk = new AsciiChunk(chan, start, end - start);
+		    chunk.checkFraction = checkFraction();
 
-		    else if (s.equals("endsolid")) {
-			if (info != null)
-			    throw new Ex("missing \"solid\" keyword");
+		    chunks.add(chunk);
+		    start = end;
+		}
 
-			count++;
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+		    // count the lines in each chunk
+		    ArrayList<Callable<Integer>> count =
+			new ArrayList<Callable<Integer>>(chunks.size());
+		    for (AsciiChunk chunk : chunks) count.add(chunk::countLines);
 
-			faceArray = (int[][]) flist.toArray(new int[0][0]);
-			vertArray = (Vec3[]) vlist.toArray(new Vec3[0]);
+		    List<Future<Integer>> lines = pool.invokeAll(count);
 
-			TriangleMesh mesh = new TriangleMesh(vertArray, faceArray);
+		    int line = 1;
+		    for (int x = 0; x < chunks.size(); x++) {
+			chunks.get(x).firstLine = line;
+			line += lines.get(x).get();
+		    }
 
-			validate(mesh, message);
+		    // then parse them
+		    ArrayList<Callable<Object>> parse =
+			new ArrayList<Callable<Object>>(chunks.size());
+		    for (AsciiChunk chunk : chunks)
+			parse.add(Executors.callable((Runnable) chunk::parse));
 
-			info = new ObjectInfo(mesh, new CoordinateSystem(), name);
+		    for (Future<Object> result : pool.invokeAll(parse))
+			result.get();
+		}
+		finally {
+		    pool.shutdown();
+		}
 
-			info.addTrack(new PositionTrack(info), 0);
-			info.addTrack(new RotationTrack(info), 1);
+		// assemble the parts in file order
+		for (AsciiChunk chunk : chunks) {
+		    for (AsciiChunk.Part part : chunk.parts)
+			assembler.accept(part);
 
-			scene.addObject(info, null);
+		    if (chunk.error != null) {
+			assembler.lineno = chunk.errorLine;
+			throw chunk.error;
 		    }
 
-		    else if (s.equals("facet")) {
-			if (info != null)
-			    throw new Ex("missing \"solid\" keyword");
+		    chunk.parts = null;
+		}
 
-			if (token.nextToken() == WORD
-			    && token.sval.equals("normal")) {
+		assembler.finish();
+	    }
+	    catch (Exception e) {
+		new BStandardDialog("", new String [] {
+		    Translate.text("errorLoadingFile"),
+		    "(at line " + assembler.lineno + ")\n" + e.toString()
+		}, BStandardDialog.ERROR).showMessageDialog(parent);
+		return null;
+	    }
+	    finally {
+		assembler.close();
+	    }
+	}
 
-			    readVec(token, norm);
-			}
-			else 
-			    throw new Ex("missing \"normal\" keyword");
-		    }
+	return scene;
+    }
 
-		    else if (s.equals("endfacet")) {
-			if (info != null)
-			    throw new Ex("missing \"solid\" keyword");
+    /**
+     *  AsciiAssembler builds the objects of a scene from the parts of a
+     *  parsed ASCII STL file (see AsciiChunk), which must be passed to it
+     *  in file order.
+     *
+     *  It holds the state which spans the whole file (the current solid,
+     *  the number of solids, and the overall bounds), and so makes the
+     *  checks which depend on that state.
+     *
+     *  Each completed solid is handed to a pool of <i>parallelism</i>
+     *  threads, which build and validate its mesh while parsing continues
+     *  (parsing waits if more than twice that many are pending).
+     *  The objects are added to the scene, and their messages written, in
+     *  file order, so the result does not depend on which solid finishes
+     *  first.
+     */
+    protected class AsciiAssembler implements Consumer<AsciiChunk.Part>
+    {
+	/** the line of the part being assembled */
+	public int lineno = 1;
 
-			if (vertno != 3)
-			    throw new Ex("incorrect number of vertices: " +
-					 vertno);
-		    }
+	public AsciiAssembler(Scene scene)
+	{ this.scene = scene; }
 
-		    else if (s.equals("outer")) {
-			if (info != null)
-			    throw new Ex("missing \"solid\" keyword");
+	/**
+	 *  add the next part.
+	 */
+	@Override
+	public void accept(AsciiChunk.Part part)
+	{
+	    lineno = part.line;
 
-			if (token.nextToken() != WORD
-			    || !token.sval.equals("loop"))
-			    throw new Ex("missing \"loop\" keyword");
+	    switch (part.type) {
+	    case AsciiChunk.SOLID:
+		if (count > 0 && !ended)
+		    throw new Ex("unmatched \"solid\" keyword ");
 
-			vertno = 0;
-			face = new int[3];
-		    }
+		ended = false;
+		buffer = null;
 
-		    else if (s.equals("endloop")) {
-			if (info != null)
-			    throw new Ex("missing \"solid\" keyword");
+		name = (part.name != null ? part.name : "Object-" + count);
+		System.out.println("STL: name=" + name);
+		break;
 
-			v1 = (Vec3) vlist.get(face[0]);
-			v2 = (Vec3) vlist.get(face[1]);
-			v3 = (Vec3) vlist.get(face[2]);
+	    case AsciiChunk.FACETS:
+		if (ended)
+		    throw new Ex("missing \"solid\" keyword");
 
-			calcNorm = v2.minus(v1).cross(v3.minus(v1));
-                        calcNorm.normalize();
-                        double projection = norm.unit().dot(calcNorm);
+		if (diag == null) diag = newDiagnostics("line");
+		diag.add(part.diagnostics);
 
-                        if (0 < projection && projection < 0.999)
-                            message.write("Normal direction, line: " + lineno + "\n"
-                            + "read: " + norm + "; calculated: " + calcNorm + "\n");
-                        if (projection < 0.0)
-                            message.write("Inverted normal at line: " + lineno + "\n");
-                        if (projection == 0.0)
-                            message.write("Degenerate triangle Detected at line: "
-                                          + lineno + "\n");
+		if (buffer == null) buffer = part.mesh;
+		else buffer.append(part.mesh);
+		break;
 
-                        flist.add(face);
-		    }
+	    case AsciiChunk.ENDSOLID:
+		if (ended)
+		    throw new Ex("missing \"solid\" keyword");
+
+		count++;
+		ended = true;
+
+		if (buffer == null) buffer = new MeshBuffer(16);
+		buffer.extendBounds(bounds);
+
+		if (diag != null) {
+		    diag.name = name;
+		    diagnostics.add(diag);
+		    try {
+			diag.summary(pending);
+		    } catch (IOException e) {}
+		    diag = null;
+		}
 
-		    else if (s.equals("vertex")) {
-			if (info != null)
-			    throw new Ex("missing \"solid\" keyword");
+		Solid solid = new Solid(buffer, name, pending);
+		solid.check = (validation == VALIDATE_FULL);
+		buffer = null;
+		pending = new CharArrayWriter();
 
-			if (vertno >= 3)
-			    throw new Ex("too many vertices: " + vertno);
+		if (parallelism > 1) {
+		    if (pool == null) pool = Executors.newFixedThreadPool(parallelism);
 
-			readVec(token, vert);
-			index = (Integer) vmap.get(vert.toString());
+		    // bound the solids in flight, as each holds its buffer
+		    if (solids.size() > parallelism*2) drain(true);
 
-			if (index != null) {
-			    face[vertno++] = index.intValue();
-			}
-			else {
-			    if (vert.x < bounds.minx) bounds.minx = vert.x;
-			    if (vert.x > bounds.maxx) bounds.maxx = vert.x;
-			    if (vert.y < bounds.miny) bounds.miny = vert.y;
-			    if (vert.y > bounds.maxy) bounds.maxy = vert.y;
-			    if (vert.z < bounds.minz) bounds.minz = vert.z;
-			    if (vert.z > bounds.maxz) bounds.maxz = vert.z;
-
-			    x = vlist.size();
-			    face[vertno++] = x;
-			    vmap.put(vert.toString(), new Integer(x));
-			    vlist.add(vert);
-
-			    vert = new Vec3();	// new Vec3
-			}
-		    }
-		    break;
+		    solid.done = pool.submit(solid);
+		}
+		else solid.run();
 
-		case EOL:
-		case CR:
-		    //System.out.println("STL: next line...");
-		    lineno++;
+		solids.add(solid);
+		drain(false);
+		break;
+	    }
+	}
 
-		    // check for eol pairs (\r\n)
-		    if (token.nextToken() != EOL && token.ttype != CR)
-			token.pushBack();
-		    break;
+	/**
+	 *  finish the scene, once every part has been added.
+	 */
+	public void finish()
+	{
+	    Vec3 centre;
 
-		case EOF:
-		    more = false;
-		    break;
+	    drain(true);
 
-		default:
-		    throw new Ex("invalid token (type): " + token.ttype);
-		}
+	    // the facets of a solid never ended
+	    if (diag != null) {
+		try {
+		    diag.summary(pending);
+		} catch (IOException e) {}
+		diag = null;
 	    }
 
+	    message.write(pending.toCharArray(), 0, pending.size());
+	    pending.reset();
+
 	    if (count >0)
             {
               if (centered)
@@ -731,17 +1055,124 @@ public class STLTranslator implements Plugin, Translator
                   if (obj.getObject() instanceof TriangleMesh)
                     obj.coords.setOrigin(new Vec3(dx, dy, dz));
               }
-            } else message.write("\nNo object created");
+            } else message.append("\nNo object created");
 	}
-	catch (Exception e) {
-	    new BStandardDialog("", new String [] {
-		Translate.text("errorLoadingFile"),
-		"(at line " + lineno + ")\n" + e.toString()
-	    }, BStandardDialog.ERROR).showMessageDialog(parent);
-	    return null;
+
+	/**
+	 *  add the solids completed so far to the scene, and release the
+	 *  worker threads.
+	 *
+	 *  This is called (after finish(), or after an error) once the
+	 *  assembler is no longer needed.
+	 */
+	public void close()
+	{
+	    try {
+		drain(true);
+	    }
+	    catch (Exception e) {
+		// an error has already been reported
+	    }
+	    finally {
+		if (pool != null) pool.shutdownNow();
+		pool = null;
+	    }
 	}
 
-	return scene;
+	/**
+	 *  add the solids at the head of the queue, in order, to the scene.
+	 *
+	 *  @param wait if true, wait for every solid to complete; otherwise
+	 *		stop at the first which has not completed.
+	 */
+	private void drain(boolean wait)
+	{
+	    while (!solids.isEmpty()) {
+		Solid solid = solids.peek();
+		if (solid.done != null) {
+		    if (!wait && !solid.done.isDone()) return;
+
+		    try {
+			solid.done.get();
+		    }
+		    catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		    }
+		    catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		    }
+		}
+
+		solids.remove();
+
+		message.write(solid.before.toCharArray(), 0, solid.before.size());
+		message.write(solid.messages.toCharArray(), 0,
+			      solid.messages.size());
+
+		scene.addObject(solid.info, null);
+	    }
+	}
+
+	private Scene scene;
+	private String name;
+	private MeshBuffer buffer;
+	private FacetDiagnostics diag;
+	private boolean ended;
+	private int count = 0;
+	private BoundingBox bounds = new BoundingBox(new Vec3(), new Vec3());
+
+	/* messages not yet written to <i>message</i> */
+	private CharArrayWriter pending = new CharArrayWriter();
+
+	/* solids not yet added to the scene, in file order */
+	private ArrayDeque<Solid> solids = new ArrayDeque<Solid>();
+	private ExecutorService pool;
+    }
+
+    /**
+     *  Solid builds and validates the mesh of one solid from an ASCII STL
+     *  file, and creates its ObjectInfo.
+     */
+    protected static class Solid implements Runnable
+    {
+	/** the messages which precede this solid's own */
+	public final CharArrayWriter before;
+
+	/** the messages reported by validation */
+	public final CharArrayWriter messages = new CharArrayWriter();
+
+	/** the new object, once built */
+	public ObjectInfo info;
+
+	/** the task building this solid (<i>null</i> if built directly) */
+	public Future<?> done;
+
+	/** whether to validate the mesh */
+	public boolean check = true;
+
+	public Solid(MeshBuffer buffer, String name, CharArrayWriter before)
+	{
+	    this.buffer = buffer;
+	    this.name = name;
+	    this.before = before;
+	}
+
+	@Override
+	public void run()
+	{
+	    if (check) validate(buffer, messages);
+
+	    TriangleMesh mesh = buffer.toMesh();
+	    buffer = null;
+
+	    info = new ObjectInfo(mesh, new CoordinateSystem(), name);
+
+	    info.addTrack(new PositionTrack(info), 0);
+	    info.addTrack(new RotationTrack(info), 1);
+	}
+
+	private MeshBuffer buffer;
+	private final String name;
     }
 
     /**
@@ -750,190 +1181,621 @@ public class STLTranslator implements Plugin, Translator
     public Scene importStream(Scene scene, InputStream is)
 	throws IOException
     {
-	ObjectInfo info = null;
-	CoordinateSystem coords;
-	int x, vertno=0, face[], faceArray[][] = new int[0][0], len;
+	int vertno=0, face[], len;
 	String name;
-	Vec3 centre, vert, norm, calcNorm, vertArray[], v1, v2, v3;
-	Integer index;
-	ArrayList vlist = new ArrayList(1024*128);
-	ArrayList flist = new ArrayList(1024*64);
-	HashMap vmap = new HashMap(1024*128);
+	Vec3 vert, norm;
+	MeshBuffer buffer;
+	FacetDiagnostics diag;
 	byte[] buff = new byte[80];
 
-	name = null;
 	norm = new Vec3();
 	vert = new Vec3();
-	vertArray = new Vec3[0];
-	faceArray = new int[0][0];
 	face = new int[3];
-	BoundingBox bounds = new BoundingBox(vert, vert);
 
-	// ensure we have a Scene to import into
-	if (scene == null) {
-	    scene = createScene();
+	scene = beginImport(scene);
+
+	// binary STL is always little-endian
+	DataInput in = new LittleEndianDataInputStream(is);
+
+	try {
+
+	    int count = 0;
+
+		try {
+		    in.readFully(buff);
+		} catch (EOFException e) {
+		    System.out.println("STL: " + e);
+		    return scene;
+		}
+
+		name = headerName(buff, count);
+
+		System.out.println("STL: name=" + name);
+
+		// get the number of faces
+		len = in.readInt();
+
+		if (len <= 0) {
+		    message.write("No faces defined");
+		    return scene;
+		}
+
+		System.out.println("STL; faces=" + len);
+
+		// (the count is not checked: the buffer grows as need be)
+		buffer = new MeshBuffer(Math.min(len, STREAM_FACETS));
+		diag = newDiagnostics("face");
+		count++;
+			
+		// read every face
+		for (int faceno = 0; faceno < len; faceno++) {
+
+		    // read the normal
+		    readVec(in, norm);
+
+		    // read the 3 vertices
+		    for (vertno = 0; vertno < 3; vertno++) {
+			readVec(in, vert);
+			face[vertno] = buffer.addVertex(vert.x, vert.y, vert.z);
+		    }
+
+		    // read padding
+		    in.skipBytes(2);
+
+		    // calculate the normal, and compare
+		    diag.check(norm.x, norm.y, norm.z, buffer.getCoords(),
+			       face[0], face[1], face[2], faceno);
+
+		    buffer.addFace(face[0], face[1], face[2]);
+		}
+
+		addMesh(scene, name, buffer, diag);
+
+	    if (count == 0)
+		message.write("\nNo object created");
+	}
+	catch (Exception e) {
+	    new BStandardDialog("", new String [] {
+		Translate.text("errorLoadingFile"), e.toString()
+	    }, BStandardDialog.ERROR).showMessageDialog(parent);
+
+	    return null;
+	}
+
+	return scene;
+    }
+
+    /**
+     *  Import a new Scene object from an uncompressed (BINARY STL) file.
+     *
+     *  The file is mapped into memory (a window at a time, so files larger
+     *  than 2GB can be read), and the facet records are decoded directly
+     *  from the mapped buffer, rather than a float at a time through a
+     *  stream.
+     */
+    public Scene importMapped(Scene scene, File file)
+	throws IOException
+    {
+	int len;
+	String name;
+	MeshBuffer buffer;
+	byte[] buff = new byte[80];
+
+	scene = beginImport(scene);
+
+	try (FileChannel chan = FileChannel.open(file.toPath(),
+						 StandardOpenOption.READ)) {
+
+	    long size = chan.size();
+	    if (size < HEADER_SIZE) {
+		System.out.println("STL: file too short: " + size);
+		return scene;
+	    }
+
+	    // binary STL is always little-endian
+	    ByteBuffer hdr = chan.map(FileChannel.MapMode.READ_ONLY, 0,
+				      HEADER_SIZE)
+		.order(ByteOrder.LITTLE_ENDIAN);
+
+	    hdr.get(buff);
+	    name = headerName(buff, 0);
+
+	    System.out.println("STL: name=" + name);
+
+	    // get the number of faces
+	    len = hdr.getInt(80);
+
+	    if (len <= 0) {
+		message.write("No faces defined");
+		return scene;
+	    }
+
+	    System.out.println("STL; faces=" + len);
+
+	    if (HEADER_SIZE + (long) len * FACET_SIZE > size)
+		throw new Ex("file is truncated: " + len + " faces need " +
+			     (HEADER_SIZE + (long) len * FACET_SIZE) +
+			     " bytes, found " + size);
+
+	    // large files are decoded in parallel
+	    if (parallelism > 1 && len >= CHUNK_FACETS*2) {
+		decodeParallel(scene, name, chan, len);
+		return scene;
+	    }
+
+	    buffer = new MeshBuffer(len);
+	    FacetDiagnostics diag = newDiagnostics("face");
+
+	    // map and decode a window of whole facet records at a time
+	    for (int start = 0; start < len; start += MAP_FACETS) {
+		int max = Math.min(MAP_FACETS, len - start);
+		ByteBuffer buf = chan.map(FileChannel.MapMode.READ_ONLY,
+					  HEADER_SIZE + (long) start*FACET_SIZE,
+					  (long) max * FACET_SIZE)
+		    .order(ByteOrder.LITTLE_ENDIAN);
+
+		decodeFacets(buffer, diag, buf, start, max);
+	    }
+
+	    addMesh(scene, name, buffer, diag);
+	}
+	catch (Exception e) {
+	    new BStandardDialog("", new String [] {
+		Translate.text("errorLoadingFile"), e.toString()
+	    }, BStandardDialog.ERROR).showMessageDialog(parent);
+
+	    return null;
+	}
+
+	return scene;
+    }
+
+    /**
+     *  Import a new Scene object from a (BINARY STL) buffer.
+     *
+     *  The header and facets are read from the buffer's remaining bytes,
+     *  in place, and its position is advanced past them.
+     */
+    public Scene importBinary(Scene scene, ByteBuffer data)
+	throws IOException
+    {
+	int len;
+	String name;
+	byte[] buff = new byte[80];
+
+	scene = beginImport(scene);
+
+	try {
+	    // binary STL is always little-endian
+	    ByteBuffer buf = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+
+	    int size = buf.remaining();
+	    if (size < HEADER_SIZE) {
+		System.out.println("STL: buffer too short: " + size);
+		return scene;
+	    }
+
+	    buf.get(buff);
+	    name = headerName(buff, 0);
+
+	    System.out.println("STL: name=" + name);
+
+	    // get the number of faces
+	    len = buf.getInt(80);
+
+	    if (len <= 0) {
+		message.write("No faces defined");
+		data.position(data.position() + HEADER_SIZE);
+		return scene;
+	    }
+
+	    System.out.println("STL; faces=" + len);
+
+	    if (HEADER_SIZE + (long) len * FACET_SIZE > size)
+		throw new Ex("buffer is truncated: " + len + " faces need " +
+			     (HEADER_SIZE + (long) len * FACET_SIZE) +
+			     " bytes, found " + size);
+
+	    buf.position(HEADER_SIZE);
+	    ByteBuffer facets = buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+
+	    // large buffers are decoded in parallel
+	    if (parallelism > 1 && len >= CHUNK_FACETS*2)
+		decodeParallel(scene, name, facets, len);
+	    else {
+		MeshBuffer buffer = new MeshBuffer(len);
+		FacetDiagnostics diag = newDiagnostics("face");
+		decodeFacets(buffer, diag, facets, 0, len);
+		addMesh(scene, name, buffer, diag);
+	    }
+
+	    data.position(data.position() + HEADER_SIZE + len * FACET_SIZE);
+	}
+	catch (Exception e) {
+	    new BStandardDialog("", new String [] {
+		Translate.text("errorLoadingFile"), e.toString()
+	    }, BStandardDialog.ERROR).showMessageDialog(parent);
+
+	    return null;
+	}
+
+	return scene;
+    }
+
+    /**
+     *  Import a new Scene object from a (BINARY STL) channel.
+     *
+     *  Whole facet records are read into a buffer, a block at a time, and
+     *  decoded from there.
+     */
+    public Scene importBinary(Scene scene, ReadableByteChannel chan)
+	throws IOException
+    {
+	int len;
+	String name;
+	byte[] buff = new byte[80];
+
+	scene = beginImport(scene);
+
+	try {
+	    // binary STL is always little-endian
+	    ByteBuffer hdr = ByteBuffer.allocate(HEADER_SIZE)
+		.order(ByteOrder.LITTLE_ENDIAN);
+
+	    if (!readFully(chan, hdr)) {
+		System.out.println("STL: stream too short: " + hdr.position());
+		return scene;
+	    }
+
+	    hdr.flip();
+	    hdr.get(buff);
+	    name = headerName(buff, 0);
+
+	    System.out.println("STL: name=" + name);
+
+	    // get the number of faces
+	    len = hdr.getInt(80);
+
+	    if (len <= 0) {
+		message.write("No faces defined");
+		return scene;
+	    }
+
+	    System.out.println("STL; faces=" + len);
+
+	    // check the count against the size, if it is known; if not, the
+	    // buffer grows as need be
+	    if (chan instanceof SeekableByteChannel) {
+		SeekableByteChannel seek = (SeekableByteChannel) chan;
+		long size = HEADER_SIZE + seek.size() - seek.position();
+
+		if (HEADER_SIZE + (long) len * FACET_SIZE > size)
+		    throw new Ex("stream is truncated: " + len + " faces need " +
+				 (HEADER_SIZE + (long) len * FACET_SIZE) +
+				 " bytes, found " + size);
+	    }
+
+	    MeshBuffer buffer = new MeshBuffer(Math.min(len, STREAM_FACETS));
+	    FacetDiagnostics diag = newDiagnostics("face");
+	    ByteBuffer buf = ByteBuffer.allocateDirect(CHUNK_FACETS * FACET_SIZE)
+		.order(ByteOrder.LITTLE_ENDIAN);
+
+	    for (int start = 0; start < len; start += CHUNK_FACETS) {
+		int max = Math.min(CHUNK_FACETS, len - start);
+
+		buf.clear();
+		buf.limit(max * FACET_SIZE);
+		if (!readFully(chan, buf))
+		    throw new Ex("stream is truncated: " + len + " faces need " +
+				 (HEADER_SIZE + (long) len * FACET_SIZE) +
+				 " bytes, found " + (HEADER_SIZE + (long) start
+						     * FACET_SIZE + buf.position()));
+
+		decodeFacets(buffer, diag, buf, start, max);
+	    }
+
+	    addMesh(scene, name, buffer, diag);
+	}
+	catch (Exception e) {
+	    new BStandardDialog("", new String [] {
+		Translate.text("errorLoadingFile"), e.toString()
+	    }, BStandardDialog.ERROR).showMessageDialog(parent);
+
+	    return null;
+	}
+
+	return scene;
+    }
+
+    /**
+     *  Import a new Scene object from an (ASCII STL) buffer.
+     *
+     *  A heap buffer is tokenized in place (see STLLexer).
+     */
+    public Scene importAscii(Scene scene, ByteBuffer buf)
+	throws IOException
+    { return importAscii(scene, new STLLexer(buf), buf.remaining()); }
+
+    /**
+     *  Import a new Scene object from an (ASCII STL) channel.
+     */
+    public Scene importAscii(Scene scene, ReadableByteChannel chan)
+	throws IOException
+    { return importAscii(scene, new STLLexer(chan), 0); }
+
+    /**
+     *  Import a new Scene object from a buffer holding an (uncompressed)
+     *  STL file of either type.
+     *
+     *  As for files, the contents are binary if their size matches the
+     *  number of faces in the (binary) header, and otherwise ASCII.
+     */
+    public Scene importBuffer(Scene scene, ByteBuffer buf)
+	throws IOException
+    {
+	int size = buf.remaining();
+
+	if (size >= HEADER_SIZE) {
+	    int len = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN)
+		.getInt(buf.position() + 80);
+
+	    if (size == HEADER_SIZE + (long) len * FACET_SIZE)
+		return importBinary(scene, buf);
+	}
+
+	return importAscii(scene, buf);
+    }
+
+    /**
+     *  decode <i>count</i> facet records from <i>buf</i> (little-endian,
+     *  with the first at index 0), numbered from <i>start</i>, adding them
+     *  to <i>buffer</i>, and any problems with their normals to
+     *  <i>diag</i>.
+     */
+    protected void decodeFacets(MeshBuffer buffer, FacetDiagnostics diag,
+				ByteBuffer buf, int start, int count)
+	throws IOException
+    {
+	int face[] = new int[3];
+	Vec3 vert = new Vec3();
+
+	// the normals of a block of facets are checked together
+	float[][] read = new float[3][Math.min(count, FacetDiagnostics.BLOCK)];
+
+	for (int first = 0; first < count; first += FacetDiagnostics.BLOCK) {
+	    int max = Math.min(FacetDiagnostics.BLOCK, count - first);
+	    int faces = buffer.getFaceCount();
+
+	    for (int x = 0, pos = first*FACET_SIZE; x < max;
+		 x++, pos += FACET_SIZE) {
+		read[0][x] = buf.getFloat(pos);
+		read[1][x] = buf.getFloat(pos + 4);
+		read[2][x] = buf.getFloat(pos + 8);
+
+		readVec(buf, pos + 12, vert);
+		face[0] = buffer.addVertex(vert.x, vert.y, vert.z);
+		readVec(buf, pos + 24, vert);
+		face[1] = buffer.addVertex(vert.x, vert.y, vert.z);
+		readVec(buf, pos + 36, vert);
+		face[2] = buffer.addVertex(vert.x, vert.y, vert.z);
+
+		buffer.addFace(face[0], face[1], face[2]);
+	    }
 
-	    // only copy to theScene if we created the scene
-	    theScene = scene;
+	    diag.check(read, buffer.getCoords(), buffer.getFaces(), faces, max,
+		       start + first);
 	}
+    }
 
-	rendermode = ArtOfIllusion.getPreferences().getDefaultDisplayMode();
+    /**
+     *  read from a channel until the buffer is full.
+     *
+     *  @return false if the channel ended first
+     */
+    protected static boolean readFully(ReadableByteChannel chan,
+				       ByteBuffer buf)
+	throws IOException
+    {
+	while (buf.hasRemaining())
+	    if (chan.read(buf) < 0) return false;
 
-	if (message == null) message = new CharArrayWriter(1024*16);
-	else message.reset();
+	return true;
+    }
 
-	// binary STL is always little-endian
-	DataInput in = new LittleEndianDataInputStream(is);
+    /**
+     *  decode the <i>len</i> facets of a binary file in parallel.
+     *
+     *  The facets are split into disjoint chunks, which are decoded on a
+     *  ForkJoinPool of <i>parallelism</i> threads. The chunks are then
+     *  merged in file order, so the vertex indices are the same as those
+     *  from a sequential import, and the resulting mesh added to the scene.
+     */
+    protected void decodeParallel(Scene scene, String name, FileChannel chan,
+				  int len)
+	throws Exception
+    {
+	int size = Math.max(len / (parallelism*4), CHUNK_FACETS);
+	size = Math.min(size, MAP_FACETS);
 
-	try {
+	ArrayList<FacetChunk> chunks = new ArrayList<FacetChunk>();
+	for (int start = 0; start < len; start += size)
+	    chunks.add(new FacetChunk(chan, HEADER_SIZE, start,
+				      Math.min(size, len - start)));
 
-	    int count = 0;
-	    boolean more = true;
-	    //while (more) {
+	decodeChunks(scene, name, chunks, len);
+    }
 
-	    //System.out.println("STL: count=" + count);
+    /**
+     *  decode the <i>len</i> facets of a binary file in parallel, from a
+     *  buffer holding the facets (from facet 0 at index 0).
+     */
+    protected void decodeParallel(Scene scene, String name, ByteBuffer facets,
+				  int len)
+	throws Exception
+    {
+	int size = Math.max(len / (parallelism*4), CHUNK_FACETS);
 
-		try {
-		    in.readFully(buff);
-		} catch (EOFException e) {
-		    System.out.println("STL: " + e);
-		    return scene;
-		}
+	ArrayList<FacetChunk> chunks = new ArrayList<FacetChunk>();
+	for (int start = 0; start < len; start += size)
+	    chunks.add(new FacetChunk(facets, start,
+				      Math.min(size, len - start)));
 
-		int pos = 0;
-		while (pos < 80 && buff[pos] == ' ') pos++;
+	decodeChunks(scene, name, chunks, len);
+    }
 
-		if (QUOTES.indexOf(buff[pos]) >= 0) {
-		    int epos = pos;
-		    while (epos < 80 && buff[epos] != buff[pos]) epos++;
+    /**
+     *  decode the chunks on a pool of <i>parallelism</i> threads, then
+     *  merge them in order, and add the mesh to the scene.
+     */
+    protected void decodeChunks(Scene scene, String name,
+				List<FacetChunk> chunks, int len)
+	throws Exception
+    {
+	for (FacetChunk chunk : chunks) chunk.diagnostics = newDiagnostics("face");
 
-		    if (pos < 80 && epos > pos && epos < 80)
-			name = new String(buff, pos+1, epos-pos-2);
-		}
-		if (name == null || name.length() == 0)
-		    name = "Object-" + count;
+	ForkJoinPool pool = new ForkJoinPool(parallelism);
+	try {
+	    pool.submit(() -> ForkJoinTask.invokeAll(chunks)).get();
+	}
+	finally {
+	    pool.shutdown();
+	}
 
-		System.out.println("STL: name=" + name);
+	// merge the chunks (in order)
+	MeshBuffer buffer = new MeshBuffer(len);
+	FacetDiagnostics diag = newDiagnostics("face");
 
-		info = null;
-		vlist.clear();
-		flist.clear();
-		vmap.clear();
+	for (FacetChunk chunk : chunks) {
+	    if (chunk.error != null) throw chunk.error;
 
-		// get the number of faces
-		len = in.readInt();
+	    buffer.append(chunk.mesh);
+	    diag.add(chunk.diagnostics);
 
-		if (len <= 0) {
-		    message.write("No faces defined");
-		    //break;
-		    return scene;
-		}
+	    // release the chunk storage as we go
+	    chunk.mesh = null;
+	}
 
-		System.out.println("STL; faces=" + len);
+	addMesh(scene, name, buffer, diag);
+    }
 
-		count++;
-			
-		// read every face
-		for (int faceno = 0; faceno < len; faceno++) {
+    /**
+     *  get the fraction of facets whose normals are checked on import, at
+     *  the current validation level.
+     */
+    protected double checkFraction()
+    {
+	switch (validation) {
+	case VALIDATE_NONE: return 0.0;
+	case VALIDATE_SAMPLED: return Math.max(0.0, Math.min(sampleFraction, 1.0));
+	default: return 1.0;
+	}
+    }
 
-		    //System.out.println("STL: face#" + faceno);
+    /**
+     *  create a collector for the facets of an imported mesh, at the
+     *  current validation level.
+     *
+     *  @param unit what a location counts ("face" or "line")
+     */
+    protected FacetDiagnostics newDiagnostics(String unit)
+    {
+	return new FacetDiagnostics(unit, FacetDiagnostics.SAMPLES,
+				    checkFraction());
+    }
 
-		    face = new int[3];
+    /**
+     *  prepare for an import into the specified scene.
+     *
+     *  @return the scene to import into (a new one if <i>scene</i> is null)
+     */
+    protected Scene beginImport(Scene scene)
+    {
+	// ensure we have a Scene to import into
+	if (scene == null) {
+	    scene = createScene();
 
-		    // read the normal
-		    readVec(in, norm);
+	    // only copy to theScene if we created the scene
+	    theScene = scene;
+	}
 
-		    // read the 3 vertices
-		    for (vertno = 0; vertno < 3; vertno++) {
-			readVec(in, vert);
-			index = (Integer) vmap.get(vert.toString());
+	rendermode = ArtOfIllusion.getPreferences().getDefaultDisplayMode();
 
-			if (index != null) {
-			    face[vertno] = index.intValue();
-			}
-			else {
-			    if (vert.x < bounds.minx) bounds.minx = vert.x;
-			    if (vert.x > bounds.maxx) bounds.maxx = vert.x;
-			    if (vert.y < bounds.miny) bounds.miny = vert.y;
-			    if (vert.y > bounds.maxy) bounds.maxy = vert.y;
-			    if (vert.z < bounds.minz) bounds.minz = vert.z;
-			    if (vert.z > bounds.maxz) bounds.maxz = vert.z;
-
-			    x = vlist.size();
-			    face[vertno] = x;
-			    vmap.put(vert.toString(), new Integer(x));
-			    vlist.add(vert);
-
-			    vert = new Vec3();	// new Vec3
-			}
-		    }
+	if (message == null) message = new CharArrayWriter(1024*16);
+	else message.reset();
 
-		    // read padding
-		    in.skipBytes(2);
+	diagnostics.clear();
 
-		    // calculate the normal, and compare
-		    v1 = (Vec3) vlist.get(face[0]);
-		    v2 = (Vec3) vlist.get(face[1]);
-		    v3 = (Vec3) vlist.get(face[2]);
-
-		    calcNorm = v2.minus(v1).cross(v3.minus(v1));
-		    calcNorm.normalize();
-                    double projection = norm.unit().dot(calcNorm);
-                
-                    if (0 < projection && projection < 0.999)
-                        message.write("Normal direction, face: " + faceno + "\n"
-                        + "read: " + norm + "; calculated: " + calcNorm + "\n");
-                    if (projection < 0.0)
-                        message.write("Inverted normal at face: " + faceno + "\n");
-                    if (projection == 0.0)
-                        message.write("Degenerate triangle detected at face: "
-                        + faceno + "\n");
-
-                    flist.add(face);
-		}
+	return scene;
+    }
 
-		//System.out.println("STL: building mesh");
+    /**
+     *  extract the object name from the 80-byte header of a binary STL.
+     *
+     *  A name is only recognised if it is quoted (as we write it on export).
+     */
+    protected static String headerName(byte[] buff, int count)
+    {
+	String name = null;
 
-		// build the mesh
-		faceArray = (int[][]) flist.toArray(faceArray);
-		vertArray = (Vec3[]) vlist.toArray(vertArray);
+	int pos = 0;
+	while (pos < 80 && buff[pos] == ' ') pos++;
 
-		centre = bounds.getCenter();
-		coords = new CoordinateSystem(new Vec3(), Vec3.vz(), Vec3.vy());
+	if (pos < 80 && QUOTES.indexOf(buff[pos]) >= 0) {
+	    int epos = pos+1;
+	    while (epos < 80 && buff[epos] != buff[pos]) epos++;
 
-		if (centered) {
-		    double dx = (centre.x > 0.0 ? -centre.x : 0.0);
-		    double dy = (centre.y > 0.0 ? -centre.y : 0.0);
-		    double dz = (centre.z > 0.0 ? -centre.z : 0.0);
-		    coords.setOrigin(new Vec3(dx, dy, dz));
-		}
+	    if (epos < 80)
+		name = new String(buff, pos+1, epos-pos-1);
+	}
+	if (name == null || name.length() == 0)
+	    name = "Object-" + count;
 
-		TriangleMesh mesh = new TriangleMesh(vertArray, faceArray);
+	return name;
+    }
 
-		validate(mesh, message);
+    /**
+     *  build a (binary) mesh from the staged vertices and faces, and add it
+     *  to the scene, reporting any problems found in its facets.
+     */
+    private void addMesh(Scene scene, String name, MeshBuffer buffer,
+			 FacetDiagnostics diag)
+	throws IOException
+    {
+	BoundingBox bounds = new BoundingBox(new Vec3(), new Vec3());
+	buffer.extendBounds(bounds);
 
-		info = new ObjectInfo(mesh, coords, name);
+	diag.name = name;
+	diagnostics.add(diag);
+	diag.summary(message);
 
-		info.addTrack(new PositionTrack(info), 0);
-		info.addTrack(new RotationTrack(info), 1);
+	if (validation == VALIDATE_FULL) validate(buffer, message);
 
-		scene.addObject(info, null);
+	addMesh(scene, name, buffer.toMesh(), bounds);
+    }
 
-		//System.out.println("STL: new object added");
-		//}
+    /**
+     *  add a (binary) mesh to the scene.
+     */
+    private void addMesh(Scene scene, String name, TriangleMesh mesh,
+			 BoundingBox bounds)
+    {
+	Vec3 centre = bounds.getCenter();
+	CoordinateSystem coords = new
+	    CoordinateSystem(new Vec3(), Vec3.vz(), Vec3.vy());
 
-	    if (count == 0)
-		message.write("\nNo object created");
+	if (centered) {
+	    double dx = (centre.x > 0.0 ? -centre.x : 0.0);
+	    double dy = (centre.y > 0.0 ? -centre.y : 0.0);
+	    double dz = (centre.z > 0.0 ? -centre.z : 0.0);
+	    coords.setOrigin(new Vec3(dx, dy, dz));
 	}
-	catch (Exception e) {
-	    new BStandardDialog("", new String [] {
-		Translate.text("errorLoadingFile"), e.toString()
-	    }, BStandardDialog.ERROR).showMessageDialog(parent);
 
-	    return null;
-	}
+	ObjectInfo info = new ObjectInfo(mesh, coords, name);
 
-	return scene;
+	info.addTrack(new PositionTrack(info), 0);
+	info.addTrack(new RotationTrack(info), 1);
+
+	scene.addObject(info, null);
     }
 
     /**
@@ -970,6 +1832,9 @@ public class STLTranslator implements Plugin, Translator
 
 	// copy existing values into the GUI
 	ignoreBox.setState(ignoreError);
+	validationChoice.setSelectedIndex(Math.max(VALIDATE_NONE,
+						   Math.min(validation,
+							    VALIDATE_FULL)));
 	centerBox.setState(centered);
 	frameBox.setState(frame);
 	surfErrorField.setValue(surfError);
@@ -985,6 +1850,7 @@ public class STLTranslator implements Plugin, Translator
 	centerBox.setEnabled(true);
 	frameBox.setEnabled(true);
 	ignoreBox.setEnabled(true);
+	validationChoice.setEnabled(true);
 	compressBox.setEnabled(true);
 	prog.setEnabled(false);
 
@@ -1021,20 +1887,18 @@ public class STLTranslator implements Plugin, Translator
 	    errRow.add(surfErrorField);
 	    col.add(errRow);
 
-	    // display any initial warning messages
-	    if (message.size() > 0) {
-		messageArea.setText(message.toString());
-		scroll.setContent(messageArea);
-
-		if (solidPlugin == null) {
-                    solidPlugin = PluginRegistry.getPlugins(Plugin.class)
-                            .stream()
-                            .filter(plugin -> plugin.getClass().getName().equals("artofillusion.plugin.SolidTool"))
-                            .findAny()
-                            .orElseGet(() -> null);
-		}
+	    // the fix button is shown if validation finds any errors
+	    if (solidPlugin == null) {
+                solidPlugin = PluginRegistry.getPlugins(Plugin.class)
+                        .stream()
+                        .filter(plugin -> plugin.getClass().getName().equals("artofillusion.plugin.SolidTool"))
+                        .findAny()
+                        .orElseGet(() -> null);
+	    }
 
-		if (solidPlugin != null) butts.add(fix);
+	    if (solidPlugin != null) {
+		fix.setVisible(false);
+		butts.add(fix);
 	    }
 	}
 	if (action == IMPORT) {
@@ -1049,6 +1913,11 @@ public class STLTranslator implements Plugin, Translator
 	    viewRow.add(centerBox);
 	    viewRow.add(frameBox);
 	    col.add(viewRow);
+
+	    RowContainer checkRow = new RowContainer();
+	    checkRow.add(new BLabel(Translate.text("validation")));
+	    checkRow.add(validationChoice);
+	    col.add(checkRow);
 	}
 
 	col.add(ignoreBox);
@@ -1062,9 +1931,12 @@ public class STLTranslator implements Plugin, Translator
 	dlg.pack();
 	UIUtilities.centerDialog(dlg, parent);
 
+	if (action == EXPORT) startValidation(theList);
+
 	// returns when dialog is exited
 	dlg.setVisible(true);
 			  
+	stopValidation();
 	prog.setIndeterminate(false);
 
 	if (dlg != null) dlg.dispose();
@@ -1081,6 +1953,8 @@ public class STLTranslator implements Plugin, Translator
      */
     public void cancel()
     {
+	stopValidation();
+
 	if (thread != null) {
 	    System.out.println("Cancelled: " + thread.getName());
 	    thread.interrupt();
@@ -1176,6 +2050,7 @@ public class STLTranslator implements Plugin, Translator
 	File file = new File(path, name);
 
 	ignoreError = ignoreBox.getState();
+	if (action == IMPORT) validation = validationChoice.getSelectedIndex();
 	centered = centerBox.getState();
 	frame = frameBox.getState();
 	surfError = surfErrorField.getValue();
@@ -1230,10 +2105,14 @@ public class STLTranslator implements Plugin, Translator
 	centerBox.setEnabled(false);
 	frameBox.setEnabled(false);
 	ignoreBox.setEnabled(false);
+	validationChoice.setEnabled(false);
 	compressBox.setEnabled(false);
 	typeChoice.setEnabled(false);
 	typeChoice.setSelectedIndex(type);
 
+	// the export need not wait for validation to finish
+	stopValidation();
+
 	prog.setEnabled(true);
 
 	prog.setIndeterminate(true);
@@ -1245,19 +2124,34 @@ public class STLTranslator implements Plugin, Translator
 	try {
 	    switch (action) {
 	    case EXPORT:
-		out = new FileOutputStream(file);
-		if (compress) out = new GZIPOutputStream(out);
-		out = new BufferedOutputStream(out);
+		final File target = file;
+
+		// an uncompressed binary file is written through a mapping,
+		// on several threads
+		final boolean mapFile = (compress == false
+					 && type == BINARY && parallelism > 1);
+
+		// the exports buffer their own output, and write a plain
+		// file through its channel (which must not be wrapped)
+		if (mapFile) out = null;
+		else {
+		    out = new FileOutputStream(file);
+		    if (compress)
+			out = new BufferedOutputStream(new
+			    ParallelGZIPOutputStream(out, compressionLevel,
+						     parallelism));
+		}
 
 		thread = new Thread(new Runnable() {
 			public void run()
 			{
 			    try {
-				if (typeChoice.getSelectedIndex() == BINARY)
+				if (mapFile)
+				    exportMapped(theList, target);
+				else if (typeChoice.getSelectedIndex() == BINARY)
 				    exportStream(theList, out);
 				else
-				    exportStream(theList,
-						 new PrintWriter(out));
+				    exportAscii(theList, out);
 
 				if (thread == null) return;
 
@@ -1289,19 +2183,29 @@ public class STLTranslator implements Plugin, Translator
 		break;
 
 	    case IMPORT:
-		in = new FileInputStream(file);
-		if (compress) in = new GZIPInputStream(in);
-		in = new BufferedInputStream(in);
-		
+		final File source = file;
+		final boolean mapped = (compress == false);
+
+		// uncompressed files are read directly from a mapping
+		if (mapped) in = null;
+		else {
+		    in = new FileInputStream(file);
+		    if (compress) in = new GZIPInputStream(in);
+		    in = new BufferedInputStream(in);
+		}
+
 		thread = new Thread(new Runnable() {
 			public void run()
 			{
 			    try {
-				if (typeChoice.getSelectedIndex() == BINARY)
+				if (mapped && typeChoice.getSelectedIndex() == BINARY)
+				    importMapped(theScene, source);
+				else if (mapped)
+				    importAsciiMapped(theScene, source);
+				else if (typeChoice.getSelectedIndex() == BINARY)
 				    importStream(theScene, in);
 				else
-				    importStream(theScene, new
-						 InputStreamReader(in));
+				    importAscii(theScene, in, 0);
 
 				if (thread == null) return;
 
@@ -1355,15 +2259,10 @@ public class STLTranslator implements Plugin, Translator
     {
 	BoundingBox bb = null;
 	double dx=0, dy=0, dz=0;
-	ObjectInfo info;
-	TriangleMesh mesh = null;
-
-	faces = 0;
 
 	int max = list.size();
 	for (int x = 0; x < max; x++) {
-	    info = (ObjectInfo) list.get(x);
-
+	    ObjectInfo info = (ObjectInfo) list.get(x);
 	    bb = info.getBounds().transformAndOutset(info.coords.fromLocal());
 
 	    //System.out.println("export: bounds=" + bb);
@@ -1371,9 +2270,6 @@ public class STLTranslator implements Plugin, Translator
 	    if (bb.minx < dx) dx = bb.minx;
 	    if (bb.miny < dy) dy = bb.miny;
 	    if (bb.minz < dz) dz = bb.minz;
-
-	    mesh = info.object.convertToTriangleMesh(surfError);
-	    if (mesh != null) faces += mesh.getFaces().length;
 	}
 
 	// calculate the transform to ensure no negative numbers...
@@ -1383,6 +2279,213 @@ public class STLTranslator implements Plugin, Translator
 	move = Mat4.translation(dx, dy, dz);
     }
 
+    /**
+     *  count the faces of the tessellated objects in the list.
+     *
+     *  The meshes are taken from the tessellation cache if they are
+     *  still there, and are not kept.
+     */
+    protected int countFaces(List list)
+	throws InterruptedException
+    {
+	int count = 0;
+
+	MeshPipeline pipe = pipeline(list);
+	try {
+	    while (pipe.hasNext()) {
+		TriangleMesh mesh = pipe.next();
+		if (mesh != null) count += mesh.getFaces().length;
+	    }
+	}
+	finally {
+	    pipe.close();
+	}
+
+	return count;
+    }
+
+    /**
+     *  create a pipeline tessellating the objects in the list, in order,
+     *  ahead of the export writing them.
+     */
+    protected MeshPipeline pipeline(List list)
+    {
+	return new MeshPipeline(list, tessellations, surfError, parallelism,
+				pipelineLimit);
+    }
+
+    /**
+     *  get the transform from an object's local coordinates to those
+     *  written to the file: its own position, moved by <i>move</i>.
+     *
+     *  The object itself is not moved.
+     */
+    protected Mat4 worldTransform(ObjectInfo info)
+    {
+	CoordinateSystem coords = info.coords.duplicate();
+	coords.transformOrigin(move);
+	return coords.fromLocal();
+    }
+
+    /**
+     *  start validating the objects in the list in the background,
+     *  showing the progress (and any errors found) in the dialog.
+     */
+    protected void startValidation(final List list)
+    {
+	stopValidation();
+
+	prog.setEnabled(true);
+	prog.setIndeterminate(false);
+	prog.setMinimum(0);
+	prog.setMaximum(list.size());
+	prog.setValue(0);
+	prog.setProgressText(Translate.text("validate"));
+
+	validator = new Thread(new Runnable() {
+		public void run()
+		{
+		    try {
+			validateObjects(list);
+		    } catch (InterruptedException e) {}
+		    catch (Exception e) { error = e; }
+		}
+	    }, "STL validation");
+
+	validator.setDaemon(true);
+	validator.start();
+    }
+
+    /**
+     *  stop any validation still running, and wait for it to finish.
+     */
+    protected void stopValidation()
+    {
+	Thread running = validator;
+	validator = null;
+
+	if (running == null) return;
+
+	running.interrupt();
+	try {
+	    running.join();
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+    }
+
+    /**
+     *  tessellate and validate every object in the list, recording the
+     *  result of each in <i>errs</i> and <i>message</i>, in the order of
+     *  the list.
+     *
+     *  The objects are tessellated (through the tessellation cache, so the
+     *  export need not do it again) and checked concurrently, on a pool of
+     *  <i>parallelism</i> threads, and the results are shown in the dialog
+     *  (if any) as each object in turn is done. An object which appears
+     *  more than once in the list is checked only once.
+     */
+    protected void validateObjects(List list)
+	throws IOException, InterruptedException
+    {
+	final int max = list.size();
+
+	// the first entry in the list for each object
+	int[] first = new int[max];
+	IdentityHashMap<Object3D, Integer> seen =
+	    new IdentityHashMap<Object3D, Integer>(max*2);
+
+	ArrayList<Callable<ManifoldCheck>> tasks =
+	    new ArrayList<Callable<ManifoldCheck>>(max);
+
+	for (int x = 0; x < max; x++) {
+	    final ObjectInfo info = (ObjectInfo) list.get(x);
+
+	    Integer prev = seen.putIfAbsent(info.object, x);
+	    first[x] = (prev == null ? x : prev);
+
+	    tasks.add(prev != null ? null : () -> {
+		    TriangleMesh mesh = tessellations.get(info.object, surfError);
+		    return (mesh == null ? null : ManifoldCheck.check(mesh));
+		});
+	}
+
+	ForkJoinPool pool = null;
+	ArrayList<Future<ManifoldCheck>> result =
+	    new ArrayList<Future<ManifoldCheck>>(max);
+
+	if (parallelism > 1 && seen.size() > 1) {
+	    pool = new ForkJoinPool(Math.min(parallelism, seen.size()));
+	    for (int x = 0; x < max; x++)
+		result.add(tasks.get(x) == null ? null : pool.submit(tasks.get(x)));
+	}
+
+	ManifoldCheck[] checks = new ManifoldCheck[max];
+	int error = 0;
+
+	try {
+	    for (int x = 0; x < max; x++) {
+		if (Thread.interrupted()) throw new InterruptedException();
+
+		ObjectInfo info = (ObjectInfo) list.get(x);
+
+		if (first[x] < x) checks[x] = checks[first[x]];
+		else if (pool != null) checks[x] = result.get(x).get();
+		else {
+		    FutureTask<ManifoldCheck> task =
+			new FutureTask<ManifoldCheck>(tasks.get(x));
+		    task.run();
+		    checks[x] = task.get();
+		}
+
+		if (checks[x] != null) {
+		    message.write("\n" + info.name + ": ");
+		    if (!validate(checks[x], message)) {
+			error++;
+			errs[x] = true;
+		    }
+		    else {
+			message.write(Translate.text("ok"));
+			errs[x] = false;
+		    }
+		}
+
+		prog.setValue(x+1);
+
+		// show the messages as soon as there is an error
+		if (error > 0) showValidation();
+	    }
+	} catch (ExecutionException e) {
+	    Throwable cause = e.getCause();
+	    if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+	    if (cause instanceof Error) throw (Error) cause;
+	    throw new RuntimeException(cause);
+	} finally {
+	    if (pool != null) pool.shutdownNow();
+	}
+
+	if (error == 0) message.reset();
+    }
+
+    /**
+     *  show the validation messages so far, and the fix button.
+     */
+    private void showValidation()
+    {
+	BDialog win = dlg;
+	if (win == null || validator != Thread.currentThread()) return;
+
+	boolean first = (scroll.getContent() != messageArea);
+
+	messageArea.setText(message.toString());
+
+	if (first) {
+	    scroll.setContent(messageArea);
+	    if (solidPlugin != null) fix.setVisible(true);
+	    win.pack();
+	}
+    }
+
     /**
      *  create a new (empty) scene
      */
@@ -1416,45 +2519,33 @@ public class STLTranslator implements Plugin, Translator
      *  validate that a trianglemesh is consistent with STL
      */
     public static boolean validate(TriangleMesh mesh, Writer err)
-    {
-	boolean valid = true;
-
-	try {
-	    // number of faces must be even
-	    int fc = mesh.getFaces().length;
-	    if (((fc/2) * 2) != fc) {
-		valid = false;
-		err.write("validate: number of faces (" + fc +
-			  ") is not even\n");
-	    }
-
-	    // number of edges must be a multiple of 3
-	    int ec = mesh.getEdges().length;
-	    if (((ec/3) * 3) != ec) {
-		valid = false;
-		err.write("validate: number of edges (" + ec +
-			  ") is not a multiple of 3\n");
-	    }
+    { return validate(ManifoldCheck.check(mesh), err); }
 
-	    // number of edges must be 2/3 number of faces
-	    if (2*ec != 3*fc) {
-		valid = false;
-		err.write("validate: number of faces (" + fc +
-			  ") is not 2/3 the number of edges (" + ec + ")\n");
-	    }
+    /**
+     *  validate that the (imported) mesh in a buffer is consistent with
+     *  STL, before a TriangleMesh is built from it.
+     */
+    public static boolean validate(MeshBuffer buffer, Writer err)
+    { return validate(ManifoldCheck.check(buffer), err); }
 
-	    // calculate the number of holes we've found...
-	    int vc = mesh.getVertices().length;
-	    int holes = -((fc - ec + vc - 2) / 2);
-	    if (holes > 0)
-		err.write("validate: calculated holes (using Euler's) = " +
-			  holes + "\n");
+    /**
+     *  report the result of a ManifoldCheck.
+     *
+     *  @return true if the mesh is a closed, consistently wound surface
+     */
+    public static boolean validate(ManifoldCheck check, Writer err)
+    {
+	boolean valid = check.isClosed();
 
-	    System.out.println("validate: fc=" +fc+ "; ec=" +ec+ "; vc=" +vc);
+	try {
+	    valid = check.report(err);
 	} catch (IOException e) {
 	    System.out.println("Exception in validate: " + e);
 	}
 
+	System.out.println("validate: fc=" + check.faces + "; ec=" + check.edges
+			   + "; vc=" + check.vertices);
+
 	return valid;
     }
 
@@ -1492,9 +2583,11 @@ public class STLTranslator implements Plugin, Translator
 
 	    System.out.println("preread: faces=" + len + "; length=" +
 			       file.length() + "; calc len=" +
-			       (84 + (len*50)));
+			       (HEADER_SIZE + (long) len * FACET_SIZE));
 
-	    return result +(file.length() == 84 + (len * 50) ? BINARY : ASCII);
+	    // (long arithmetic, so files over 2GB are still recognised)
+	    return result + (file.length() == HEADER_SIZE + (long) len * FACET_SIZE
+			     ? BINARY : ASCII);
 	}	
 	finally {
 	    try {
@@ -1506,6 +2599,9 @@ public class STLTranslator implements Plugin, Translator
     /**
      *  write a 3D vector to an (ASCII) STL stream.
      *
+     *  Each coordinate is written by a FloatFormat, with at most
+     *  <i>decimal</i> significant digits (if <i>decimal</i> is positive).
+     *
      *  @param out the printwriter to write to
      *  @param prefix the String prefix to write before the vector
      *  @param p the Vec3 point to print
@@ -1517,13 +2613,26 @@ public class STLTranslator implements Plugin, Translator
     {
 	if (trans != null) p = trans.times(p);
 
-	out.print(prefix);
-	out.print(" ");
-	out.print(Float.toString((float)p.x));
-	out.print(" ");
-	out.print(Float.toString((float)p.y));
-	out.print(" ");
-	out.print(Float.toString((float)p.z));
+	if (format == null || format.getDigits() != Math.max(decimal, 0))
+	    format = new FloatFormat(decimal);
+
+	int len = prefix.length();
+	if (line.length < len + 3*(FloatFormat.MAX_LENGTH + 1))
+	    line = new char[len + 3*(FloatFormat.MAX_LENGTH + 1)];
+
+	// build the line, then write it in one call
+	char[] buf = line;
+	prefix.getChars(0, len, buf, 0);
+
+	int pos = len;
+	buf[pos++] = ' ';
+	pos = format.format((float) p.x, buf, pos);
+	buf[pos++] = ' ';
+	pos = format.format((float) p.y, buf, pos);
+	buf[pos++] = ' ';
+	pos = format.format((float) p.z, buf, pos);
+
+	out.write(buf, 0, pos);
     }
 
     /**
@@ -1542,7 +2651,7 @@ public class STLTranslator implements Plugin, Translator
     /**
      *  read a 3D vector from an (ASCII) STL stream
      *
-     *  @param token the StreamTokenizer to parse from
+     *  @param token the STLLexer to parse from
      *  @param vec the Vec3 object to put the parsed values into
      *		(may be <i>null</i>)
      *
@@ -1550,24 +2659,38 @@ public class STLTranslator implements Plugin, Translator
      *  @throws IOException from the IO
      *  @throws RuntimeException of a token is not a number
      */
-    protected static Vec3 readVec(StreamTokenizer token, Vec3 vec)
+    protected static Vec3 readVec(STLLexer token, Vec3 vec)
 	throws IOException
     {
 	if (vec == null) vec = new Vec3();
 
-	if (token.nextToken() == NUM) vec.x = token.nval;
-	else if (token.ttype == WORD) vec.x = Double.parseDouble(token.sval);
+	if (token.next() == WORD) vec.x = token.number();
 	else throw new RuntimeException("Invalid number");
 
-	if (token.nextToken() == NUM) vec.y = token.nval;
-	else if (token.ttype == WORD) vec.y = Double.parseDouble(token.sval);
+	if (token.next() == WORD) vec.y = token.number();
 	else throw new RuntimeException("Invalid number");
 
-	if (token.nextToken() == NUM) vec.z = token.nval;
-	else if (token.ttype == WORD) vec.z = Double.parseDouble(token.sval);
+	if (token.next() == WORD) vec.z = token.number();
 	else throw new RuntimeException("Invalid number");
 
-	
+	return vec;
+    }
+
+    /**
+     *  read a 3D vector from a (binary, little-endian) STL buffer.
+     *
+     *  @param buf the ByteBuffer to read from
+     *  @param pos the absolute position in <i>buf</i> of the first float
+     *  @param vec the Vec3 object to put the values into
+     */
+    protected static Vec3 readVec(ByteBuffer buf, int pos, Vec3 vec)
+    {
+	if (vec == null) vec = new Vec3();
+
+	vec.x = buf.getFloat(pos);
+	vec.y = buf.getFloat(pos+4);
+	vec.z = buf.getFloat(pos+8);
+
 	return vec;
     }
 
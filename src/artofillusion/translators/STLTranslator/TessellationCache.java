@@ -0,0 +1,288 @@
+/*
+ * TessellationCache: part of the STLTranslator plugin for Art of Illusion.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See version 2 of the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * with this program. If not, the license, including version 2, is available
+ * from the GNU project, at http://www.gnu.org.
+ */
+
+package artofillusion.translators;
+
+import artofillusion.*;
+import artofillusion.object.*;
+
+import java.io.*;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ *  TessellationCache keeps the TriangleMesh produced by
+ *  convertToTriangleMesh() for each object, so that the phases of an
+ *  export (validation, bounds and writing), and repeated exports of an
+ *  unchanged scene, tessellate each object only once.
+ *
+ *  Entries are keyed on the identity of the object and the surface error.
+ *  Since objects are edited in place, each entry also holds a fingerprint
+ *  of the object's state (a hash of what it writes to a scene file), and
+ *  is only used while the object still has that fingerprint.
+ *
+ *  The cache holds at most <i>limit</i> bytes (estimated) of meshes,
+ *  evicting the least recently used first, and only the objects of one
+ *  scene: it is cleared when another is set (see setScene()).
+ *
+ *  The meshes returned are shared, and must not be modified.
+ */
+
+public class TessellationCache
+{
+    /** the fingerprint of an object whose state cannot be written */
+    public static final long NONE = 0;
+
+    /**
+     *  create a cache holding at most <i>limit</i> bytes of meshes.
+     */
+    public TessellationCache(long limit)
+    { this.limit = limit; }
+
+    /**
+     *  get the tessellation of <i>obj</i> at surface error <i>tol</i>,
+     *  tessellating it if it is not already cached.
+     *
+     *  This may be called from several threads at once.
+     *
+     *  @return the mesh, or <i>null</i> if the object cannot be converted.
+     */
+    public TriangleMesh get(Object3D obj, double tol)
+    {
+	Key key = new Key(obj, tol);
+	long print = fingerprint(obj, getScene());
+
+	// (an object whose state cannot be written is never cached)
+	if (print == NONE) return obj.convertToTriangleMesh(tol);
+
+	synchronized (this) {
+	    Entry entry = map.get(key);
+	    if (entry != null && entry.print == print) {
+		hits++;
+		return entry.mesh;
+	    }
+	}
+
+	// tessellate outside the lock, so other objects can proceed
+	TriangleMesh mesh = obj.convertToTriangleMesh(tol);
+
+	put(key, new Entry(mesh, print));
+	return mesh;
+    }
+
+    /**
+     *  set the scene the objects belong to, which is used to write their
+     *  state. If it is not the scene the cache was last used with, the
+     *  cache is cleared, so it never keeps the objects of a scene which is
+     *  no longer being exported. (<i>null</i> clears the cache.)
+     */
+    public synchronized void setScene(Scene scene)
+    {
+	if (scene != this.scene || scene == null) clear();
+	this.scene = scene;
+    }
+
+    /**
+     *  get the scene set by setScene().
+     */
+    public synchronized Scene getScene()
+    { return scene; }
+
+    /**
+     *  set the (estimated) number of bytes the cache may hold, evicting
+     *  entries if necessary.
+     *
+     *  A limit of zero disables the cache.
+     */
+    public synchronized void setLimit(long limit)
+    {
+	this.limit = limit;
+	evict();
+    }
+
+    /**
+     *  get the (estimated) number of bytes the cache may hold.
+     */
+    public synchronized long getLimit()
+    { return limit; }
+
+    /**
+     *  get the (estimated) number of bytes the cache holds.
+     */
+    public synchronized long getSize()
+    { return size; }
+
+    /**
+     *  get the number of lookups answered from the cache.
+     */
+    public synchronized long getHits()
+    { return hits; }
+
+    /**
+     *  remove every entry.
+     */
+    public synchronized void clear()
+    {
+	map.clear();
+	size = 0;
+    }
+
+    /**
+     *  estimate the number of bytes held by a mesh (its vertices, faces
+     *  and edges, and their positions).
+     */
+    public static long estimate(TriangleMesh mesh)
+    {
+	if (mesh == null) return 64;
+
+	return 128 + mesh.getVertices().length * 96L
+	    + mesh.getFaces().length * 112L;
+    }
+
+    /**
+     *  calculate a fingerprint of the state of an object: a hash of what
+     *  it writes to a scene file. That is all that is needed to rebuild
+     *  it, so the fingerprint changes (with high probability) whenever its
+     *  tessellation would, whatever the type of object.
+     *
+     *  @param scene the scene the object belongs to (or <i>null</i>)
+     *  @return the fingerprint, or NONE if the state cannot be written.
+     */
+    public static long fingerprint(Object3D obj, Scene scene)
+    {
+	Hash hash = new Hash(obj.getClass().getName().hashCode());
+
+	try {
+	    DataOutputStream out = new DataOutputStream(
+		new BufferedOutputStream(hash, 1024*8));
+	    obj.writeToFile(out, scene);
+	    out.flush();
+	}
+	catch (Exception e) {
+	    // eg an object with a texture, written without its scene
+	    return NONE;
+	}
+
+	return (hash.print == NONE ? NONE + 1 : hash.print);
+    }
+
+    /**
+     *  add an entry, evicting older entries to stay within the limit.
+     */
+    private synchronized void put(Key key, Entry entry)
+    {
+	entry.size = estimate(entry.mesh);
+
+	Entry old = map.put(key, entry);
+	if (old != null) size -= old.size;
+	size += entry.size;
+
+	evict();
+    }
+
+    /**
+     *  remove the least recently used entries until the cache is within
+     *  its limit.
+     */
+    private void evict()
+    {
+	Iterator<Entry> it = map.values().iterator();
+	while (size > limit && it.hasNext()) {
+	    size -= it.next().size;
+	    it.remove();
+	}
+    }
+
+    /**
+     *  an OutputStream which keeps a (FNV-1a) hash of the bytes written to
+     *  it, and discards them.
+     */
+    private static class Hash extends OutputStream
+    {
+	long print;
+
+	Hash(long seed)
+	{ print = 0xCBF29CE484222325L ^ seed; }
+
+	@Override
+	public void write(int b)
+	{ print = (print ^ (b & 0xff)) * 0x100000001B3L; }
+
+	@Override
+	public void write(byte[] b, int off, int len)
+	{
+	    long h = print;
+	    for (int x = off; x < off + len; x++)
+		h = (h ^ (b[x] & 0xff)) * 0x100000001B3L;
+
+	    print = h;
+	}
+    }
+
+    /**
+     *  the key of an entry: an object (by identity) and a surface error.
+     */
+    private static class Key
+    {
+	final Object3D obj;
+	final double tol;
+
+	Key(Object3D obj, double tol)
+	{
+	    this.obj = obj;
+	    this.tol = tol;
+	}
+
+	@Override
+	public boolean equals(Object other)
+	{
+	    if (!(other instanceof Key)) return false;
+
+	    Key key = (Key) other;
+	    return (key.obj == obj && Double.compare(key.tol, tol) == 0);
+	}
+
+	@Override
+	public int hashCode()
+	{
+	    return System.identityHashCode(obj) * 31
+		+ Double.hashCode(tol);
+	}
+    }
+
+    private static class Entry
+    {
+	final TriangleMesh mesh;
+	final long print;
+	long size;
+
+	Entry(TriangleMesh mesh, long print)
+	{
+	    this.mesh = mesh;
+	    this.print = print;
+	}
+    }
+
+    /* the scene of the objects in the cache */
+    private Scene scene;
+
+    /* entries in access order (least recently used first) */
+    private LinkedHashMap<Key, Entry> map =
+	new LinkedHashMap<Key, Entry>(64, 0.75f, true);
+
+    private long limit, size, hits;
+}
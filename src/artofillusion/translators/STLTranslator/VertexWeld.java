@@ -0,0 +1,162 @@
+/*
+ * VertexWeld: part of the STLTranslator plugin for Art of Illusion.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See version 2 of the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * with this program. If not, the license, including version 2, is available
+ * from the GNU project, at http://www.gnu.org.
+ */
+
+package artofillusion.translators;
+
+import java.util.Arrays;
+
+/**
+ *  VertexWeld merges (welds) vertices with bit-identical coordinates.
+ *
+ *  Each distinct vertex is given the next sequential index, in order of
+ *  first appearance, so the result is the same as looking vertices up by
+ *  their String form in a HashMap, but without creating a String, an
+ *  Integer or a map entry per vertex.
+ *
+ *  The coordinates are held in a single primitive array, and the table is
+ *  open-addressed (linear probing), hashed on the float bits of x, y and z.
+ */
+
+public class VertexWeld
+{
+    /**
+     *  create a weld table sized for the expected number of distinct
+     *  vertices.
+     */
+    public VertexWeld(int expected)
+    {
+	if (expected < 16) expected = 16;
+
+	coords = new double[expected*3];
+
+	int cap = 32;
+	while (cap < expected * 2 && cap < (1 << 30)) cap <<= 1;
+
+	table = new int[cap];
+	mask = cap - 1;
+    }
+
+    /**
+     *  estimate the number of distinct vertices in a file of <i>facets</i>
+     *  triangles.
+     *
+     *  A closed triangle mesh has roughly half as many vertices as faces.
+     */
+    public static int expected(long facets)
+    {
+	return (int) Math.min(facets/2 + 16, Integer.MAX_VALUE/8);
+    }
+
+    /**
+     *  add a vertex, unless an identical vertex is already present.
+     *
+     *  @return the index of the vertex. If this is equal to the size()
+     *		before the call, then the vertex is new.
+     */
+    public int add(double x, double y, double z)
+    {
+	int slot = hash(x, y, z) & mask;
+	int entry;
+
+	while ((entry = table[slot]) != 0) {
+	    int pos = (entry-1) * 3;
+
+	    if (Double.doubleToLongBits(coords[pos]) == Double.doubleToLongBits(x)
+		&& Double.doubleToLongBits(coords[pos+1]) == Double.doubleToLongBits(y)
+		&& Double.doubleToLongBits(coords[pos+2]) == Double.doubleToLongBits(z))
+		return entry-1;
+
+	    slot = (slot + 1) & mask;
+	}
+
+	int index = count++;
+	if (index*3 + 3 > coords.length)
+	    coords = Arrays.copyOf(coords, Math.max(coords.length * 2, 48));
+
+	int pos = index*3;
+	coords[pos] = x;
+	coords[pos+1] = y;
+	coords[pos+2] = z;
+
+	table[slot] = index+1;
+
+	// keep the load factor at or below 0.5
+	if (count * 2 > table.length) rehash(table.length * 2);
+
+	return index;
+    }
+
+    /**
+     *  get the number of distinct vertices
+     */
+    public int size()
+    { return count; }
+
+    /**
+     *  get the vertex coordinates, as consecutive (x, y, z) triples.
+     *
+     *  The array may be longer than 3*size().
+     */
+    public double[] getCoords()
+    { return coords; }
+
+    /**
+     *  remove all vertices, keeping the allocated storage.
+     */
+    public void clear()
+    {
+	Arrays.fill(table, 0);
+	count = 0;
+    }
+
+    /**
+     *  hash a vertex on the float bits of its coordinates.
+     */
+    protected static int hash(double x, double y, double z)
+    {
+	long h = Float.floatToIntBits((float) x);
+	h = h * 0x9E3779B97F4A7C15L + Float.floatToIntBits((float) y);
+	h = h * 0x9E3779B97F4A7C15L + Float.floatToIntBits((float) z);
+
+	// final mix, so the low bits depend on all the input bits
+	h ^= (h >>> 33);
+	h *= 0xFF51AFD7ED558CCDL;
+	h ^= (h >>> 33);
+
+	return (int) h;
+    }
+
+    /**
+     *  resize the table, and re-insert every vertex.
+     */
+    private void rehash(int cap)
+    {
+	table = new int[cap];
+	mask = cap - 1;
+
+	for (int index = 0, pos = 0; index < count; index++, pos += 3) {
+	    int slot = hash(coords[pos], coords[pos+1], coords[pos+2]) & mask;
+	    while (table[slot] != 0) slot = (slot + 1) & mask;
+
+	    table[slot] = index+1;
+	}
+    }
+
+    private double[] coords;
+    private int[] table;
+    private int mask, count;
+}
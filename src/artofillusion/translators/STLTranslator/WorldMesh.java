@@ -0,0 +1,153 @@
+/*
+ * WorldMesh: part of the STLTranslator plugin for Art of Illusion.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See version 2 of the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * with this program. If not, the license, including version 2, is available
+ * from the GNU project, at http://www.gnu.org.
+ */
+
+package artofillusion.translators;
+
+import artofillusion.math.*;
+import artofillusion.object.*;
+
+/**
+ *  WorldMesh holds a TriangleMesh as the export writes it: each vertex
+ *  transformed (once) into world coordinates, and the normal of each face,
+ *  in flat primitive arrays - one array for each of x, y and z (or for
+ *  each vertex of a face), so they can be worked on several at a time
+ *  (see MeshKernels).
+ *
+ *  The values are exactly those the export has always written: each
+ *  vertex is transformed as by Mat4.times(), and each normal is the
+ *  normalized cross product of two (local) edges, rotated as by
+ *  Mat4.timesDirection(), each then cast to a float.
+ *
+ *  The arrays are reused from one mesh to the next (growing as needed),
+ *  so exporting a scene allocates (almost) nothing per face or vertex.
+ */
+
+public class WorldMesh
+{
+    /**
+     *  set the mesh, transformed by <i>trans</i>.
+     */
+    public void set(TriangleMesh mesh, Mat4 trans)
+    {
+	load(mesh);
+	transform(trans, 0, vertCount);
+	normals(trans, 0, faceCount);
+    }
+
+    /**
+     *  copy the (local) vertices and the faces of a mesh, ready to be
+     *  transformed.
+     *
+     *  The vertices and normals may then be calculated in ranges (eg on
+     *  several threads), through transform() and normals(). The normals
+     *  need only the local vertices, but the world coordinates of a face
+     *  are only ready once all its vertices have been transformed.
+     */
+    public void load(TriangleMesh mesh)
+    {
+	MeshVertex[] vert = mesh.getVertices();
+	TriangleMesh.Face[] face = mesh.getFaces();
+
+	vertCount = vert.length;
+	faceCount = face.length;
+
+	if (local[0].length < vertCount) {
+	    for (int x = 0; x < 3; x++) {
+		local[x] = new double[vertCount];
+		coord[x] = new float[vertCount];
+	    }
+	}
+
+	if (index[0].length < faceCount) {
+	    for (int x = 0; x < 3; x++) {
+		index[x] = new int[faceCount];
+		normal[x] = new float[faceCount];
+	    }
+	}
+
+	double[] px = local[0], py = local[1], pz = local[2];
+	for (int i = 0; i < vertCount; i++) {
+	    Vec3 r = vert[i].r;
+	    px[i] = r.x;
+	    py[i] = r.y;
+	    pz[i] = r.z;
+	}
+
+	int[] f1 = index[0], f2 = index[1], f3 = index[2];
+	for (int i = 0; i < faceCount; i++) {
+	    f1[i] = face[i].v1;
+	    f2[i] = face[i].v2;
+	    f3[i] = face[i].v3;
+	}
+    }
+
+    /**
+     *  transform the vertices <i>from</i> (inclusive) to <i>to</i>
+     *  (exclusive) into world coordinates.
+     */
+    public void transform(Mat4 trans, int from, int to)
+    { kernels.transform(trans, local, coord, from, to); }
+
+    /**
+     *  calculate the (world) normals of the faces <i>from</i> (inclusive)
+     *  to <i>to</i> (exclusive).
+     */
+    public void normals(Mat4 trans, int from, int to)
+    { kernels.normals(trans, local, index, normal, from, to); }
+
+    /**
+     *  get the number of vertices
+     */
+    public int getVertexCount()
+    { return vertCount; }
+
+    /**
+     *  get the number of faces
+     */
+    public int getFaceCount()
+    { return faceCount; }
+
+    /**
+     *  get the world coordinates: the arrays of the x, y and z of each
+     *  vertex.
+     */
+    public float[][] getCoords()
+    { return coord; }
+
+    /**
+     *  get the vertices of each face: the arrays of the index of the
+     *  first, second and third vertex of each face.
+     */
+    public int[][] getFaces()
+    { return index; }
+
+    /**
+     *  get the normals: the arrays of the x, y and z of the normal of
+     *  each face.
+     */
+    public float[][] getNormals()
+    { return normal; }
+
+    private int vertCount, faceCount;
+
+    private final MeshKernels kernels = MeshKernels.get();
+
+    private double[][] local = { new double[0], new double[0], new double[0] };
+    private float[][] coord = { new float[0], new float[0], new float[0] };
+    private int[][] index = { new int[0], new int[0], new int[0] };
+    private float[][] normal = { new float[0], new float[0], new float[0] };
+}